@@ -0,0 +1,34 @@
+#! /bin/bash
+# Starts Tomcat once with the deployed webapps to record a JDK AOT cache.
+# Sierra's warm-up (see /rest/ready) serves as the training workload; the
+# cache is written when the JVM exits. A failed training run leaves the
+# image without a cache instead of failing the build; setenv.sh only uses
+# the cache if it exists.
+set -e
+AOT_CACHE=${1:-/usr/share/tomcat/sierra.aot}
+READY_URL=${2:-http://localhost:8080/sierra/rest/ready}
+export CATALINA_PID=/tmp/catalina.pid
+export SIERRA_AOT_TRAINING=1
+export CATALINA_OPTS="$CATALINA_OPTS -XX:AOTCacheOutput=$AOT_CACHE"
+
+start=$(date +%s)
+/usr/share/tomcat/bin/catalina.sh start
+status=000
+for i in $(seq 1 600); do
+    status=$(curl -s -o /dev/null -w '%{http_code}' $READY_URL || true)
+    if [ "$status" = "200" ]; then
+        break
+    fi
+    sleep 1
+done
+if [ "$status" = "200" ]; then
+    echo "Training run ready after $(($(date +%s) - start))s"
+else
+    echo "Training run did not become ready ($READY_URL: $status); no AOT cache" >&2
+    cat /usr/share/tomcat/logs/catalina.out >&2 || true
+fi
+/usr/share/tomcat/bin/catalina.sh stop 300 -force || true
+if [ "$status" != "200" ]; then
+    rm -f $AOT_CACHE
+fi
+rm -rf /usr/share/tomcat/logs/* /usr/share/tomcat/work/* /tmp/catalina.pid
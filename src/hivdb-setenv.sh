@@ -0,0 +1,17 @@
+#! /bin/bash
+# Sourced by Tomcat's catalina.sh.
+#
+# Sierra's library jars are moved from WEB-INF/lib to $SIERRA_LIB at image
+# build time. They are put on the system class path here, so that the JDK
+# AOT cache, which only archives classes of the built-in class loaders,
+# covers them. The cache recorded at image build time is used unless
+# SIERRA_AOT_CACHE=off, e.g. to compare start-up times.
+SIERRA_LIB=/usr/share/tomcat/sierra-lib
+SIERRA_AOT=/usr/share/tomcat/sierra.aot
+
+if ls $SIERRA_LIB/*.jar >/dev/null 2>&1; then
+    CLASSPATH=$(ls $SIERRA_LIB/*.jar | paste -sd:)
+fi
+if [ -z "$SIERRA_AOT_TRAINING" ] && [ "$SIERRA_AOT_CACHE" != "off" ] && [ -f $SIERRA_AOT ]; then
+    CATALINA_OPTS="$CATALINA_OPTS -XX:AOTCache=$SIERRA_AOT"
+fi
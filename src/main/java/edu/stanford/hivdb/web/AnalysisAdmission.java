@@ -0,0 +1,292 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.analysis.QueryTraverser;
+import graphql.analysis.QueryVisitorFieldEnvironment;
+import graphql.analysis.QueryVisitorStub;
+import graphql.language.Document;
+import graphql.schema.GraphQLSchema;
+
+/**
+ * Runs GraphQL executions on virtual threads and limits how many sequence
+ * or sequence reads analyses may run at the same time.
+ *
+ * Requests without any sequence input (e.g. <code>mutationsAnalysis</code>)
+ * are never queued. Requests with sequence input wait for one of
+ * <code>SIERRA_MAX_CONCURRENT_ANALYSES</code> slots. At most
+ * <code>SIERRA_ANALYSIS_QUEUE_SIZE</code> requests may wait at a time;
+ * further requests are answered with 429 Too Many Requests. A request
+ * waited longer than <code>SIERRA_ANALYSIS_QUEUE_TIMEOUT</code> seconds is
+ * answered with 503 Service Unavailable. Both carry a Retry-After header.
+ *
+ * The limits are shared by the HIV-1 and HIV-2 services since they compete
+ * for the same CPUs and aligner processes.
+ */
+class AnalysisAdmission {
+
+	private static final AnalysisAdmission singleton = new AnalysisAdmission(
+		Settings.getInt(
+			"SIERRA_MAX_CONCURRENT_ANALYSES",
+			Runtime.getRuntime().availableProcessors()),
+		Settings.getInt("SIERRA_ANALYSIS_QUEUE_SIZE", 64),
+		Settings.getInt("SIERRA_ANALYSIS_QUEUE_TIMEOUT", 60));
+
+	private static final ExecutorService virtualThreads =
+		Executors.newVirtualThreadPerTaskExecutor();
+
+	private final Semaphore slots;
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final int maxConcurrent;
+	private final int maxWaiting;
+	private final int queueTimeout;
+
+	public static class AdmissionRejectedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Status status;
+		private final int retryAfter;
+
+		public AdmissionRejectedException(Status status, int retryAfter, String message) {
+			super(message);
+			this.status = status;
+			this.retryAfter = retryAfter;
+		}
+
+		public String getCode() {
+			return status.name();
+		}
+
+		public Response toResponse() {
+			Response response = GraphQLErrorHandler.errorResponse(status, getMessage(), getCode());
+			return Response.fromResponse(response)
+				.header(HttpHeaders.RETRY_AFTER, retryAfter)
+				.build();
+		}
+
+	}
+
+	public static AnalysisAdmission getInstance() {
+		return singleton;
+	}
+
+	protected AnalysisAdmission(int maxConcurrent, int maxWaiting, int queueTimeout) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxWaiting = maxWaiting;
+		this.queueTimeout = queueTimeout;
+		this.slots = new Semaphore(maxConcurrent, true);
+	}
+
+	private static int countSequences(Collection<?> values) {
+		int count = 0;
+		for (Object value : values) {
+			if (!(value instanceof Collection)) {
+				continue;
+			}
+			for (Object item : (Collection<?>) value) {
+				if (
+					item instanceof Map && (
+						((Map<?, ?>) item).containsKey("sequence") ||
+						((Map<?, ?>) item).containsKey("allReads")
+					)
+				) {
+					count ++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the sequences and sequence reads given by the variables of a
+	 * request, i.e. list items that look like an UnalignedSequenceInput or
+	 * a SequenceReadsInput.
+	 *
+	 * @param variables GraphQL variables
+	 * @return number of sequences
+	 */
+	public static int countSequences(Map<String, Object> variables) {
+		return countSequences(variables.values());
+	}
+
+	/**
+	 * Counts the sequences and sequence reads given to the top-level fields
+	 * of an operation, whether by variables or by inline literals.
+	 *
+	 * @param schema GraphQL schema
+	 * @param document parsed query, can be null if it has syntax errors
+	 * @param operationName operation to be executed, can be null
+	 * @param variables GraphQL variables
+	 * @return number of sequences
+	 */
+	public static int countSequences(
+		GraphQLSchema schema, Document document,
+		String operationName, Map<String, Object> variables
+	) {
+		if (document == null) {
+			return countSequences(variables);
+		}
+		int[] count = {0};
+		try {
+			QueryTraverser
+			.newQueryTraverser()
+			.schema(schema)
+			.document(document)
+			.operationName(operationName)
+			.variables(variables)
+			.build()
+			.visitPreOrder(new QueryVisitorStub() {
+				@Override
+				public void visitField(QueryVisitorFieldEnvironment env) {
+					if (env.getParentEnvironment() == null) {
+						count[0] += countSequences(env.getArguments().values());
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// the query is invalid and will be rejected by the validation
+			return countSequences(variables);
+		}
+		return count[0];
+	}
+
+	private int getRetryAfter() {
+		// a rough guess of when the queue will have drained
+		return Math.max(1, queueTimeout * waiting.get() / Math.max(1, maxWaiting));
+	}
+
+	/**
+	 * Executes the query on a virtual thread once a slot is available.
+	 *
+	 * @param graphql GraphQL instance
+	 * @param input execution input
+	 * @param numSequences number of sequences given by the request
+	 * @return the future of the execution result, completed exceptionally
+	 *         with AdmissionRejectedException if the request was rejected
+	 */
+	public CompletableFuture<ExecutionResult> execute(
+		GraphQL graphql, ExecutionInput input, int numSequences
+	) {
+		if (numSequences == 0) {
+			return CompletableFuture
+				.supplyAsync(() -> graphql.executeAsync(input), virtualThreads)
+				.thenCompose(Function.identity());
+		}
+		if (waiting.incrementAndGet() > maxWaiting) {
+			waiting.decrementAndGet();
+			return CompletableFuture.failedFuture(new AdmissionRejectedException(
+				Status.TOO_MANY_REQUESTS, getRetryAfter(), String.format(
+					"Too many sequence analyses are queued (limits: %d running, %d waiting).",
+					maxConcurrent, maxWaiting)));
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			boolean acquired;
+			try {
+				acquired = slots.tryAcquire(queueTimeout, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				acquired = false;
+			} finally {
+				waiting.decrementAndGet();
+			}
+			if (!acquired) {
+				throw new AdmissionRejectedException(
+					Status.SERVICE_UNAVAILABLE, getRetryAfter(), String.format(
+						"Sequence analysis waited more than %d seconds in queue.",
+						queueTimeout));
+			}
+			try {
+				// data fetchers are synchronous, therefore they run on this
+				// virtual thread instead of blocking a container thread
+				return graphql.executeAsync(input).join();
+			} finally {
+				slots.release();
+			}
+		}, virtualThreads);
+	}
+
+	/**
+	 * Creates the response and resumes the suspended response with it on a
+	 * virtual thread. The StreamingOutput of the response is written by the
+	 * resuming thread, therefore a long upload or a slow client doesn't hold
+	 * a container thread.
+	 */
+	public static void resumeOnVirtualThread(
+		AsyncResponse asyncResponse, Supplier<Response> response
+	) {
+		virtualThreads.execute(() -> {
+			try {
+				asyncResponse.resume(response.get());
+			} catch (RuntimeException e) {
+				asyncResponse.resume(e);
+			}
+		});
+	}
+
+	/**
+	 * Resumes the suspended response with either the converted result or
+	 * the rejection once the execution completed.
+	 */
+	public static void resume(
+		CompletableFuture<ExecutionResult> execution,
+		AsyncResponse asyncResponse, Function<ExecutionResult, Response> toResponse
+	) {
+		execution.whenComplete((result, error) -> {
+			if (error == null) {
+				try {
+					asyncResponse.resume(toResponse.apply(result));
+				} catch (RuntimeException e) {
+					asyncResponse.resume(e);
+				}
+				return;
+			}
+			if (error instanceof CompletionException && error.getCause() != null) {
+				error = error.getCause();
+			}
+			if (error instanceof AdmissionRejectedException) {
+				asyncResponse.resume(((AdmissionRejectedException) error).toResponse());
+			}
+			else {
+				asyncResponse.resume(error);
+			}
+		});
+	}
+
+}
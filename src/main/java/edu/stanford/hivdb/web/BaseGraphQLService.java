@@ -0,0 +1,175 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+
+import edu.stanford.hivdb.graphql.SierraSchema;
+import edu.stanford.hivdb.utilities.Json;
+import edu.stanford.hivdb.viruses.Virus;
+import edu.stanford.hivdb.web.GraphQLDocumentCache.PersistedQueryException;
+import edu.stanford.hivdb.web.QueryCostBudget.QueryCostExceededException;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.GraphQLContext;
+import graphql.language.Document;
+import graphql.schema.GraphQLSchema;
+
+/**
+ * GraphQL endpoints shared by the services of all viruses.
+ *
+ * Subclasses give the resource path and the virus; the schema, the caches
+ * and the execution pipeline are built here.
+ *
+ * @param <VirusT> virus of the service
+ */
+public abstract class BaseGraphQLService<VirusT extends Virus<VirusT>> {
+
+	private final VirusT virus;
+	private final GraphQLSchema schema;
+	private final GraphQL graphql;
+	private final GraphQLDocumentCache documentCache;
+	private final BatchedDataFetchers batchedFetchers;
+	private final SequenceResultCache resultCache;
+	private final SequenceAnalysisCoalescer coalescer;
+	private final QueryCostBudget costBudget;
+
+	protected BaseGraphQLService(VirusT virus) {
+		this.virus = virus;
+		batchedFetchers = new BatchedDataFetchers();
+		schema = BatchGenotypeField.transform(
+			batchedFetchers.transform(SierraSchema.makeSchema(virus)), virus);
+		documentCache = new GraphQLDocumentCache();
+		resultCache = new SequenceResultCache(virus);
+		costBudget = new QueryCostBudget(virus.getName());
+		coalescer = new SequenceAnalysisCoalescer(
+			virus.getName(), batchedFetchers, this::executeAdmitted,
+			this::estimateCost, costBudget.getMaxCost());
+		graphql = (
+			GraphQL.newGraphQL(schema)
+			.preparsedDocumentProvider(documentCache)
+			.instrumentation(new MetricsInstrumentation(virus.getName()))
+			.build()
+		);
+	}
+
+	void warmUp() {
+		ServiceWarmup.warmUp(virus, graphql, batchedFetchers);
+	}
+
+	private static class GraphQLRequest {
+		public String query;
+		public Map<String, Object> variables;
+		public Map<String, Object> extensions;
+	}
+
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_JSON)
+	public void execute(
+		byte[] body,
+		@HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+		@Suspended AsyncResponse asyncResponse
+	) {
+		GraphQLRequest request = Json.loads(
+			new String(body, StandardCharsets.UTF_8), GraphQLRequest.class);
+		String query;
+		try {
+			query = documentCache.resolveQuery(request.query, request.extensions);
+		} catch (PersistedQueryException e) {
+			asyncResponse.resume(GraphQLErrorHandler.errorResponse(e));
+			return;
+		}
+		GraphQLContext context = (
+			GraphQLContext.newContext()
+			.of(MetricsInstrumentation.REQUEST_BYTES, body.length)
+			.build()
+		);
+		Map<String, Object> variables = request.variables;
+		if (variables == null) {variables = Collections.emptyMap(); }
+		ExecutionInput input = (
+			ExecutionInput
+			.newExecutionInput()
+			.query(query).context(context).variables(variables)
+			.dataLoaderRegistry(batchedFetchers.newDataLoaderRegistry())
+			.build()
+		);
+		AnalysisAdmission.resume(
+			resultCache.execute(input, coalescer::execute),
+			asyncResponse,
+			result -> GraphQLResponseWriter.toResponse(result, acceptEncoding));
+	}
+
+	private long estimateCost(ExecutionInput input) {
+		return QueryCostBudget.estimateCost(
+			schema, documentCache.parse(input.getQuery()),
+			input.getOperationName(), input.getVariables());
+	}
+
+	private CompletableFuture<ExecutionResult> executeAdmitted(ExecutionInput input) {
+		Document document = documentCache.parse(input.getQuery());
+		QueryCostExceededException rejection = costBudget.check(
+			schema, document, input.getOperationName(), input.getVariables());
+		if (rejection != null) {
+			// rejected before taking a slot or a place in the queue
+			return CompletableFuture.completedFuture(rejection.toExecutionResult());
+		}
+		return AnalysisAdmission.getInstance().execute(
+			graphql, input, AnalysisAdmission.countSequences(
+				schema, document,
+				input.getOperationName(), input.getVariables()));
+	}
+
+	@POST
+	@Path("stream")
+	@Consumes({SequenceAnalysisStream.FASTA, SequenceAnalysisStream.NDJSON, MediaType.TEXT_PLAIN})
+	@Produces(SequenceAnalysisStream.NDJSON)
+	public void stream(
+		@QueryParam("query") String query,
+		@QueryParam("sha256Hash") String sha256Hash,
+		@QueryParam("field") @DefaultValue(SequenceAnalysisStream.DEFAULT_FIELD) String field,
+		@QueryParam("batchSize") @DefaultValue("" + SequenceAnalysisStream.DEFAULT_BATCH_SIZE) int batchSize,
+		@HeaderParam(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+		@HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+		InputStream body,
+		@Suspended AsyncResponse asyncResponse
+	) {
+		// the upload is read and the results are written on a virtual thread
+		AnalysisAdmission.resumeOnVirtualThread(asyncResponse, () -> SequenceAnalysisStream.respond(
+			this::executeAdmitted, batchedFetchers, documentCache, resultCache,
+			query, sha256Hash, field, batchSize, contentType, acceptEncoding, body));
+	}
+}
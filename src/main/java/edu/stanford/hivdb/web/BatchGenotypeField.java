@@ -0,0 +1,192 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import static graphql.Scalars.GraphQLInt;
+import static graphql.Scalars.GraphQLString;
+import static graphql.schema.GraphQLArgument.newArgument;
+import static graphql.schema.GraphQLFieldDefinition.newFieldDefinition;
+import static graphql.schema.GraphQLInputObjectField.newInputObjectField;
+import static graphql.schema.GraphQLInputObjectType.newInputObject;
+import static graphql.schema.GraphQLObjectType.newObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.stanford.hivdb.web.BatchGenotyper.Query;
+import edu.stanford.hivdb.viruses.Virus;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.schema.DataFetcher;
+import graphql.schema.FieldCoordinates;
+import graphql.schema.GraphQLCodeRegistry;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLInputObjectType;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNonNull;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLOutputType;
+import graphql.schema.GraphQLSchema;
+
+/**
+ * Adds the top-level field
+ * <code>genotype(sequences: [{header, sequence, firstNA, lastNA}])</code>,
+ * which only genotypes sequences whose HXB2 range is already known, so
+ * large uploads don't pay for the alignment of
+ * <code>sequenceAnalysis</code>.
+ *
+ * The sequences are genotyped by {@link BatchGenotyper} on a pool of
+ * <code>SIERRA_GENOTYPE_PARALLELISM</code> (default: number of CPUs)
+ * threads shared by all requests, so concurrent requests can't use more
+ * cores than that. A sequence which can't be genotyped resolves to null
+ * with an error pointing to its index; the other sequences are still
+ * returned.
+ */
+class BatchGenotypeField {
+
+	private static final String FIELD = "genotype";
+	private static final String SEQUENCES = "sequences";
+	private static final String HEADER = "header";
+	private static final String BEST_MATCH = "bestMatchingGenotype";
+
+	private static final int parallelism = Settings.getInt(
+		"SIERRA_GENOTYPE_PARALLELISM", Runtime.getRuntime().availableProcessors());
+
+	private static final ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+
+	/**
+	 * Adds the <code>genotype</code> field to the query type.
+	 *
+	 * The result type reuses the type of
+	 * <code>SequenceAnalysis.bestMatchingGenotype</code>; if the schema
+	 * doesn't have it, the schema is returned unchanged.
+	 *
+	 * @param schema executable schema
+	 * @param virus virus of the schema
+	 * @return transformed schema
+	 */
+	public static <T extends Virus<T>> GraphQLSchema transform(GraphQLSchema schema, T virus) {
+		GraphQLObjectType seqAnalysisType = schema.getObjectType("SequenceAnalysis");
+		if (seqAnalysisType == null || seqAnalysisType.getFieldDefinition(BEST_MATCH) == null) {
+			return schema;
+		}
+		GraphQLOutputType boundGenotypeType =
+			seqAnalysisType.getFieldDefinition(BEST_MATCH).getType();
+
+		GraphQLInputObjectType inputType = newInputObject()
+			.name("BatchGenotypeInput")
+			.description("Sequence to be genotyped, with its HXB2 range.")
+			.field(newInputObjectField()
+				.name(HEADER)
+				.type(GraphQLString)
+				.description("Name of the sequence, returned as is."))
+			.field(newInputObjectField()
+				.name("sequence")
+				.type(GraphQLNonNull.nonNull(GraphQLString))
+				.description("Nucleotide sequence."))
+			.field(newInputObjectField()
+				.name("firstNA")
+				.type(GraphQLNonNull.nonNull(GraphQLInt))
+				.description("HXB2 position of the first nucleotide."))
+			.field(newInputObjectField()
+				.name("lastNA")
+				.type(GraphQLNonNull.nonNull(GraphQLInt))
+				.description("HXB2 position of the last nucleotide."))
+			.build();
+		GraphQLObjectType resultType = newObject()
+			.name("BatchGenotypeResult")
+			.description("Genotype of one sequence given to `genotype`.")
+			.field(newFieldDefinition()
+				.name(HEADER)
+				.type(GraphQLString)
+				.description("Name of the sequence."))
+			.field(newFieldDefinition()
+				.name(BEST_MATCH)
+				.type(boundGenotypeType)
+				.description("The best matching genotype."))
+			.build();
+		GraphQLFieldDefinition fieldDef = newFieldDefinition()
+			.name(FIELD)
+			.type(GraphQLList.list(resultType))
+			.argument(newArgument()
+				.name(SEQUENCES)
+				.type(GraphQLList.list(GraphQLNonNull.nonNull(inputType)))
+				.description("Sequences to be genotyped."))
+			.description(
+				"Genotypes sequences of known HXB2 range without aligning them. " +
+				"Results are returned in input order.")
+			.build();
+
+		GraphQLObjectType queryType = schema.getQueryType();
+		GraphQLObjectType newQueryType = queryType.transform(builder -> builder.field(fieldDef));
+		BatchGenotyper<T> batchGenotyper = new BatchGenotyper<>(virus.getGenotyper(), pool);
+		GraphQLCodeRegistry newCodeRegistry = schema.getCodeRegistry().transform(builder -> builder
+			.dataFetcher(
+				FieldCoordinates.coordinates(queryType.getName(), FIELD),
+				newDataFetcher(batchGenotyper)));
+		return schema.transform(builder -> builder
+			.query(newQueryType)
+			.codeRegistry(newCodeRegistry));
+	}
+
+	private static Query toQuery(Map<String, Object> input) {
+		return new Query(
+			(String) input.get("sequence"),
+			(Integer) input.get("firstNA"),
+			(Integer) input.get("lastNA"));
+	}
+
+	private static <T extends Virus<T>> DataFetcher<?> newDataFetcher(
+		BatchGenotyper<T> batchGenotyper
+	) {
+		return env -> {
+			List<Map<String, Object>> sequences = env.getArgument(SEQUENCES);
+			if (sequences == null) {
+				return null;
+			}
+			List<Map<String, Object>> data = new ArrayList<>(sequences.size());
+			List<GraphQLError> errors = new ArrayList<>();
+			batchGenotyper.genotype(sequences.iterator(), BatchGenotypeField::toQuery, result -> {
+				if (result.getError() != null) {
+					List<Object> path = new ArrayList<>(env.getExecutionStepInfo().getPath().toList());
+					path.add(data.size());
+					errors.add(GraphqlErrorBuilder.newError(env)
+						.path(path)
+						.message("Can not genotype sequence %d: %s", data.size(), result.getError().getMessage())
+						.build());
+					data.add(null);
+					return;
+				}
+				Map<String, Object> item = new LinkedHashMap<>();
+				item.put(HEADER, result.getInput().get(HEADER));
+				item.put(BEST_MATCH, result.getGenotypeResult().getBestMatch());
+				data.add(item);
+			});
+			return DataFetcherResult.<List<Map<String, Object>>>newResult()
+				.data(data)
+				.errors(errors)
+				.build();
+		};
+	}
+
+}
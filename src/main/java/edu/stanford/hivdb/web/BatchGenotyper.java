@@ -0,0 +1,285 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import edu.stanford.hivdb.genotypes.BoundGenotype;
+import edu.stanford.hivdb.genotypes.GenotypeResult;
+import edu.stanford.hivdb.genotypes.Genotyper;
+import edu.stanford.hivdb.hivfacts.HIV;
+import edu.stanford.hivdb.viruses.Virus;
+
+/**
+ * Genotypes a large number of sequences on all cores of a fork-join pool.
+ *
+ * Inputs are processed in blocks: while one block is genotyped, the next
+ * one is read from the input, and results are handed over in input order
+ * one block at a time. At most two blocks are held in memory, however
+ * long the input is. A failure of one input is reported in its result
+ * and doesn't affect the others.
+ *
+ * Also runnable from the command line, see {@link #main(String[])}.
+ *
+ * @param <VirusT> virus of the genotyper
+ */
+public class BatchGenotyper<VirusT extends Virus<VirusT>> {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+	private static final String[] HEADER = {
+		"Name", "Genotype", "Display", "Distance", "Reference"
+	};
+
+	/**
+	 * A sequence and the HXB2 positions of its first and last nucleotide.
+	 */
+	public static class Query {
+		private final String sequence;
+		private final int firstNA;
+		private final int lastNA;
+
+		public Query(String sequence, int firstNA, int lastNA) {
+			if (sequence == null || sequence.isBlank()) {
+				throw new IllegalArgumentException("sequence is empty");
+			}
+			if (firstNA < 1 || lastNA < firstNA) {
+				throw new IllegalArgumentException(String.format(
+					"invalid range %d-%d", firstNA, lastNA));
+			}
+			this.sequence = sequence;
+			this.firstNA = firstNA;
+			this.lastNA = lastNA;
+		}
+
+		public String getSequence() { return sequence; }
+		public int getFirstNA() { return firstNA; }
+		public int getLastNA() { return lastNA; }
+	}
+
+	/**
+	 * The genotype result of one input, or the error which prevented it.
+	 *
+	 * @param <InputT> type of the inputs
+	 * @param <VirusT> virus of the genotyper
+	 */
+	public static class Result<InputT, VirusT extends Virus<VirusT>> {
+		private final InputT input;
+		private final GenotypeResult<VirusT> genotypeResult;
+		private final RuntimeException error;
+
+		private Result(InputT input, GenotypeResult<VirusT> genotypeResult, RuntimeException error) {
+			this.input = input;
+			this.genotypeResult = genotypeResult;
+			this.error = error;
+		}
+
+		public InputT getInput() { return input; }
+		public GenotypeResult<VirusT> getGenotypeResult() { return genotypeResult; }
+		public RuntimeException getError() { return error; }
+	}
+
+	private final Genotyper<VirusT> genotyper;
+	private final ForkJoinPool pool;
+	private final int blockSize;
+
+	public BatchGenotyper(Genotyper<VirusT> genotyper, ForkJoinPool pool) {
+		this(genotyper, pool, DEFAULT_BLOCK_SIZE);
+	}
+
+	public BatchGenotyper(Genotyper<VirusT> genotyper, ForkJoinPool pool, int blockSize) {
+		this.genotyper = genotyper;
+		this.pool = pool;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Genotypes all queries.
+	 *
+	 * @param queries queries
+	 * @return one result per query, in the same order
+	 */
+	public List<Result<Query, VirusT>> genotype(List<Query> queries) {
+		List<Result<Query, VirusT>> results = new ArrayList<>(queries.size());
+		genotype(queries.iterator(), Function.identity(), results::add);
+		return results;
+	}
+
+	/**
+	 * Genotypes inputs block by block.
+	 *
+	 * <code>toQuery</code> runs on the pool together with the genotyping;
+	 * an exception thrown by it is reported in the result of the input.
+	 *
+	 * @param inputs inputs, read one block ahead of the genotyping
+	 * @param toQuery converts an input into a query
+	 * @param consumer receives one result per input, in input order
+	 */
+	public <InputT> void genotype(
+		Iterator<InputT> inputs,
+		Function<InputT, Query> toQuery,
+		Consumer<Result<InputT, VirusT>> consumer
+	) {
+		CompletableFuture<List<Result<InputT, VirusT>>> pending =
+			CompletableFuture.completedFuture(Collections.emptyList());
+		while (inputs.hasNext()) {
+			List<InputT> block = new ArrayList<>(blockSize);
+			while (block.size() < blockSize && inputs.hasNext()) {
+				block.add(inputs.next());
+			}
+			CompletableFuture<List<Result<InputT, VirusT>>> next =
+				CompletableFuture.supplyAsync(() -> genotypeBlock(block, toQuery), pool);
+			pending.join().forEach(consumer);
+			pending = next;
+		}
+		pending.join().forEach(consumer);
+	}
+
+	private <InputT> List<Result<InputT, VirusT>> genotypeBlock(
+		List<InputT> block, Function<InputT, Query> toQuery
+	) {
+		// runs on the pool, so the parallel stream does too
+		return block
+			.parallelStream()
+			.map(input -> genotypeOne(input, toQuery))
+			.collect(Collectors.toList());
+	}
+
+	private <InputT> Result<InputT, VirusT> genotypeOne(
+		InputT input, Function<InputT, Query> toQuery
+	) {
+		try {
+			Query query = toQuery.apply(input);
+			return new Result<>(input, genotyper.compareAll(
+				query.getSequence(), query.getFirstNA(), query.getLastNA()), null);
+		} catch (RuntimeException e) {
+			return new Result<>(input, null, e);
+		}
+	}
+
+	private static Query parseLine(String line) {
+		String[] cols = line.split("\t", -1);
+		if (cols.length != 4) {
+			throw new IllegalArgumentException(
+				"expected 4 tab-separated columns, found " + cols.length);
+		}
+		return new Query(
+			cols[3].trim(),
+			Integer.parseInt(cols[1].trim()),
+			Integer.parseInt(cols[2].trim()));
+	}
+
+	private static void writeRow(Writer writer, Result<String, HIV> result) {
+		String name = result.getInput().split("\t", -1)[0];
+		String row;
+		if (result.getError() == null) {
+			BoundGenotype<HIV> best = result.getGenotypeResult().getBestMatch();
+			row = String.join(
+				"\t", name,
+				best.getGenotype().getIndexName(),
+				best.getDisplayWithoutDistance(),
+				String.valueOf(best.getDistance()),
+				best.getReference().getAccession());
+		}
+		else {
+			// one malformed line shouldn't abort a whole night's run
+			row = String.join(
+				"\t", name, "ERROR", String.valueOf(result.getError().getMessage()), "", "");
+		}
+		try {
+			writer.write(row);
+			writer.write("\n");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Genotypes HIV-1 sequences from the command line.
+	 *
+	 * Reads tab-separated lines of <code>name, firstNA, lastNA, sequence</code>
+	 * and writes one tab-separated line of
+	 * <code>name, genotype, display, distance, reference</code> per input
+	 * line, in input order.
+	 *
+	 * Usage: <code>BatchGenotyper INPUT OUTPUT [THREADS]</code>, where "-"
+	 * stands for stdin/stdout. Also available as the Gradle task
+	 * <code>batchGenotype -Pinput=... -Poutput=... [-Pthreads=...]</code>.
+	 *
+	 * @param args command line arguments
+	 * @throws IOException if the input can't be read or the output written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: BatchGenotyper INPUT OUTPUT [THREADS]");
+			System.exit(1);
+		}
+		int threads = args.length > 2 ?
+			Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		BatchGenotyper<HIV> batchGenotyper =
+			new BatchGenotyper<>(HIV.getInstance().getGenotyper(), pool);
+		long start = System.currentTimeMillis();
+		int[] count = {0};
+		try (
+			InputStream input = args[0].equals("-") ? System.in : new FileInputStream(args[0]);
+			OutputStream output = args[1].equals("-") ? System.out : new FileOutputStream(args[1]);
+			BufferedReader reader = new BufferedReader(
+				new InputStreamReader(input, StandardCharsets.UTF_8));
+			Writer writer = new BufferedWriter(
+				new OutputStreamWriter(output, StandardCharsets.UTF_8))
+		) {
+			writer.write(String.join("\t", HEADER));
+			writer.write("\n");
+			Iterator<String> lines = reader.lines().filter(line -> !line.isBlank()).iterator();
+			batchGenotyper.genotype(lines, BatchGenotyper::parseLine, result -> {
+				writeRow(writer, result);
+				count[0] ++;
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+		System.err.println(String.format(
+			"Genotyped %d sequences with %d threads in %dms.",
+			count[0], threads, System.currentTimeMillis() - start));
+	}
+
+}
@@ -0,0 +1,383 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.dataloader.BatchLoader;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.DataLoaderRegistry;
+import org.dataloader.Try;
+
+import edu.stanford.hivdb.drugresistance.GeneDR;
+import edu.stanford.hivdb.drugresistance.algorithm.DrugResistanceAlgorithm;
+import edu.stanford.hivdb.mutations.Mutation;
+import edu.stanford.hivdb.mutations.MutationSet;
+import edu.stanford.hivdb.sequences.AlignedGeneSeq;
+import edu.stanford.hivdb.sequences.AlignedSequence;
+import edu.stanford.hivdb.viruses.Virus;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.FieldCoordinates;
+import graphql.schema.GraphQLCodeRegistry;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+
+/**
+ * Routes the per-sequence fields of <code>SequenceAnalysis</code> and
+ * <code>SequenceReadsAnalysis</code> through per-request DataLoaders, so
+ * every invocation of a field on the same level of the result is resolved
+ * in one batch.
+ *
+ * <code>SequenceAnalysis.drugResistance</code> scores every distinct
+ * combination of algorithm, gene and mutations (codons included) of the
+ * batch only once, however many sequences share it (e.g. the wild-type PR
+ * of most sequences). The genotype fields (<code>genotypes</code>,
+ * <code>subtypes</code>, <code>bestMatchingGenotype</code>...) are
+ * resolved once per distinct input sequence of the batch. Repeated
+ * invocations of any batched field with the same source object and
+ * arguments, e.g. through aliases, are resolved only once.
+ *
+ * The other per-sequence fields (e.g. <code>mutations</code> or
+ * <code>alignedGeneSequences</code>) are batched only if
+ * <code>SIERRA_BATCH_PARALLELISM</code> (default 0) is set to the size of
+ * a shared pool resolving them in parallel. Leave it at 0 until the lazily
+ * computed views of <code>AlignedSequence</code> and
+ * <code>AlignedGeneSeq</code> are safe to read from several threads.
+ *
+ * Each execution must be given the registry returned by
+ * {@link #newDataLoaderRegistry()}.
+ */
+class BatchedDataFetchers {
+
+	// object types resolved once per sequence or sequence reads; fields of
+	// MutationsAnalysis and of deeper types are left alone
+	protected static final Set<String> BATCHED_TYPES = new HashSet<>(Arrays.asList(
+		"SequenceAnalysis", "SequenceReadsAnalysis"
+	));
+
+	protected static final Set<String> BATCHED_FIELDS = new HashSet<>(Arrays.asList(
+		"alignedGeneSequences", "allGeneSequenceReads",
+		"mutations", "comments", "frameShifts",
+		"validationResults", "prettyPairwise",
+		"genotypes", "subtypes", "subtypeText",
+		"bestMatchingGenotype", "bestMatchingSubtype",
+		"mutationPrevalences", "drugResistance", "algorithmComparison"
+	));
+
+	// fields of SequenceAnalysis which only depend on the input sequence
+	protected static final Set<String> GENOTYPE_FIELDS = new HashSet<>(Arrays.asList(
+		"genotypes", "subtypes", "subtypeText",
+		"bestMatchingGenotype", "bestMatchingSubtype"
+	));
+
+	private static final String SEQUENCE_ANALYSIS = "SequenceAnalysis";
+	private static final String DRUG_RESISTANCE = "drugResistance";
+	private static final String ALGORITHM = "algorithm";
+
+	private static final int parallelism = Settings.getInt("SIERRA_BATCH_PARALLELISM", 0);
+
+	private static final ExecutorService executor =
+		parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+
+	private final Map<String, BatchLoader<DataFetchingEnvironment, Try<Object>>> batchLoaders =
+		new LinkedHashMap<>();
+
+	private static class FetchKey {
+		private final Object source;
+		private final Map<String, Object> arguments;
+
+		public FetchKey(DataFetchingEnvironment env) {
+			this.source = env.getSource();
+			this.arguments = env.getArguments();
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(source) * 31 + arguments.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) { return true; }
+			if (!(o instanceof FetchKey)) { return false; }
+			FetchKey other = (FetchKey) o;
+			// source objects (sequences, genes...) are compared by identity
+			return source == other.source && arguments.equals(other.arguments);
+		}
+	}
+
+	private static String getLoaderName(FieldCoordinates coordinates) {
+		return coordinates.getTypeName() + "." + coordinates.getFieldName();
+	}
+
+	private static class LoaderDataFetcher implements DataFetcher<Object> {
+		private final String loaderName;
+
+		public LoaderDataFetcher(String loaderName) {
+			this.loaderName = loaderName;
+		}
+
+		@Override
+		public Object get(DataFetchingEnvironment env) {
+			return env.getDataLoader(loaderName).load(env);
+		}
+	}
+
+	/**
+	 * Tells if the field being fetched is resolved through a DataLoader.
+	 * Its fetch only completes with the whole batch, therefore the batch
+	 * loader reports the time spent on each invocation to
+	 * {@link MetricsInstrumentation#recordFieldFetch} itself.
+	 *
+	 * @param env data fetching environment of the field
+	 * @return true if the field is batched
+	 */
+	public static boolean isBatched(DataFetchingEnvironment env) {
+		GraphQLObjectType parentType = (GraphQLObjectType) env.getParentType();
+		return env.getGraphQLSchema().getCodeRegistry().getDataFetcher(
+			FieldCoordinates.coordinates(parentType, env.getFieldDefinition()),
+			env.getFieldDefinition()) instanceof LoaderDataFetcher;
+	}
+
+	private static BatchLoader<DataFetchingEnvironment, Try<Object>> newBatchLoader(
+		FieldCoordinates coordinates, DataFetcher<?> dataFetcher
+	) {
+		String typeName = coordinates.getTypeName();
+		String fieldName = coordinates.getFieldName();
+		String field = getLoaderName(coordinates);
+		if (typeName.equals(SEQUENCE_ANALYSIS) && fieldName.equals(DRUG_RESISTANCE)) {
+			return envs -> loadDrugResistance(field, dataFetcher, envs);
+		}
+		if (typeName.equals(SEQUENCE_ANALYSIS) && GENOTYPE_FIELDS.contains(fieldName)) {
+			return envs -> loadPerInputSequence(field, dataFetcher, envs);
+		}
+		if (executor != null) {
+			return envs -> loadInParallel(field, dataFetcher, envs);
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the data fetchers of the batched fields by fetchers
+	 * dispatching through DataLoaders.
+	 *
+	 * @param schema executable schema
+	 * @return transformed schema
+	 */
+	public GraphQLSchema transform(GraphQLSchema schema) {
+		GraphQLCodeRegistry codeRegistry = schema.getCodeRegistry();
+		Map<FieldCoordinates, DataFetcher<?>> wrappers = new LinkedHashMap<>();
+		for (GraphQLType type : schema.getAllTypesAsList()) {
+			if (
+				!(type instanceof GraphQLObjectType) ||
+				!BATCHED_TYPES.contains(((GraphQLObjectType) type).getName())
+			) {
+				continue;
+			}
+			GraphQLObjectType objType = (GraphQLObjectType) type;
+			for (GraphQLFieldDefinition fieldDef : objType.getFieldDefinitions()) {
+				if (!BATCHED_FIELDS.contains(fieldDef.getName())) {
+					continue;
+				}
+				FieldCoordinates coordinates = FieldCoordinates.coordinates(objType, fieldDef);
+				BatchLoader<DataFetchingEnvironment, Try<Object>> batchLoader = newBatchLoader(
+					coordinates, codeRegistry.getDataFetcher(coordinates, fieldDef));
+				if (batchLoader == null) {
+					continue;
+				}
+				String loaderName = getLoaderName(coordinates);
+				batchLoaders.put(loaderName, batchLoader);
+				wrappers.put(coordinates, new LoaderDataFetcher(loaderName));
+			}
+		}
+		GraphQLCodeRegistry newCodeRegistry = codeRegistry.transform(builder -> {
+			for (Map.Entry<FieldCoordinates, DataFetcher<?>> entry : wrappers.entrySet()) {
+				builder.dataFetcher(entry.getKey(), entry.getValue());
+			}
+		});
+		return schema.transform(builder -> builder.codeRegistry(newCodeRegistry));
+	}
+
+	private static Object fetch(
+		DataFetcher<?> dataFetcher, DataFetchingEnvironment env
+	) throws Exception {
+		Object value = dataFetcher.get(env);
+		if (value instanceof CompletionStage) {
+			try {
+				value = ((CompletionStage<?>) value).toCompletableFuture().join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+		return value;
+	}
+
+	private static Try<Object> tryTimed(
+		String field, DataFetchingEnvironment env, Callable<Object> callable
+	) {
+		long start = System.nanoTime();
+		Try<Object> result = Try.tryCall(callable);
+		MetricsInstrumentation.recordFieldFetch(env, field, System.nanoTime() - start);
+		return result;
+	}
+
+	private static CompletionStage<List<Try<Object>>> loadInParallel(
+		String field, DataFetcher<?> dataFetcher, List<DataFetchingEnvironment> envs
+	) {
+		List<CompletableFuture<Try<Object>>> futures = new ArrayList<>(envs.size());
+		for (DataFetchingEnvironment env : envs) {
+			futures.add(CompletableFuture.supplyAsync(
+				() -> tryTimed(field, env, () -> fetch(dataFetcher, env)), executor));
+		}
+		return CompletableFuture
+			.allOf(futures.toArray(new CompletableFuture<?>[0]))
+			.thenApply(v -> futures.stream()
+				.map(CompletableFuture::join)
+				.collect(Collectors.toList()));
+	}
+
+	/**
+	 * Resolves the field once per distinct input sequence, strain and
+	 * arguments, and hands the same value to every sequence sharing them.
+	 */
+	private static CompletionStage<List<Try<Object>>> loadPerInputSequence(
+		String field, DataFetcher<?> dataFetcher, List<DataFetchingEnvironment> envs
+	) {
+		Map<List<Object>, Try<Object>> values = new HashMap<>();
+		List<Try<Object>> results = new ArrayList<>(envs.size());
+		for (DataFetchingEnvironment env : envs) {
+			Object source = env.getSource();
+			if (!(source instanceof AlignedSequence)) {
+				results.add(tryTimed(field, env, () -> fetch(dataFetcher, env)));
+				continue;
+			}
+			AlignedSequence<?> alignedSeq = (AlignedSequence<?>) source;
+			results.add(values.computeIfAbsent(
+				Arrays.asList(
+					alignedSeq.getStrain(),
+					alignedSeq.getInputSequence().getSequence(),
+					env.getArguments()),
+				k -> tryTimed(field, env, () -> fetch(dataFetcher, env))));
+		}
+		return CompletableFuture.completedFuture(results);
+	}
+
+	private static CompletionStage<List<Try<Object>>> loadDrugResistance(
+		String field, DataFetcher<?> dataFetcher, List<DataFetchingEnvironment> envs
+	) {
+		Map<List<Object>, Collection<?>> geneDRs = new HashMap<>();
+		List<Try<Object>> results = new ArrayList<>(envs.size());
+		for (DataFetchingEnvironment env : envs) {
+			results.add(tryTimed(field, env, () -> {
+				Object algorithm = env.getArgument(ALGORITHM);
+				if (
+					!(env.getSource() instanceof AlignedSequence) ||
+					!(algorithm instanceof String) ||
+					!Collections.singleton(ALGORITHM).containsAll(env.getArguments().keySet())
+				) {
+					// leave anything else to the data fetcher
+					return fetch(dataFetcher, env);
+				}
+				AlignedSequence<?> alignedSeq = env.getSource();
+				return getDrugResistance(alignedSeq, (String) algorithm, geneDRs);
+			}));
+		}
+		return CompletableFuture.completedFuture(results);
+	}
+
+	/**
+	 * Key of the GeneDR of a gene. MutationSets compare amino acids only,
+	 * while a GeneDR hands out its own Mutation objects, so the codons and
+	 * inserted nucleotides of the mutations are part of the key too.
+	 */
+	static List<Object> getGeneDRKey(Object algorithm, Object gene, MutationSet<?> mutations) {
+		List<String> codons = new ArrayList<>(mutations.size());
+		for (Mutation<?> mutation : mutations) {
+			codons.add(mutation.getTriplet() + "+" + mutation.getInsertedNAs());
+		}
+		return Arrays.asList(algorithm, gene, mutations, codons);
+	}
+
+	/**
+	 * Builds the same list as <code>GeneDR.newFromAlignedGeneSeqs</code>,
+	 * looking up the GeneDR of each gene in the results of the batch so far
+	 * before creating a new one.
+	 */
+	private static <T extends Virus<T>> List<GeneDR<T>> getDrugResistance(
+		AlignedSequence<T> alignedSeq, String algorithmName,
+		Map<List<Object>, Collection<?>> geneDRs
+	) {
+		DrugResistanceAlgorithm<T> algorithm =
+			alignedSeq.getStrain().getVirusInstance().getDrugResistAlgorithm(algorithmName);
+		List<GeneDR<T>> results = new ArrayList<>();
+		for (AlignedGeneSeq<T> geneSeq : alignedSeq.getAlignedGeneSequences()) {
+			@SuppressWarnings("unchecked")
+			Collection<GeneDR<T>> geneDR = (Collection<GeneDR<T>>) geneDRs.computeIfAbsent(
+				getGeneDRKey(algorithm, geneSeq.getGene(), geneSeq.getMutations()),
+				k -> GeneDR.newFromAlignedGeneSeqs(
+					Collections.singletonList(geneSeq), algorithm).values());
+			results.addAll(geneDR);
+		}
+		return results;
+	}
+
+	/**
+	 * Creates the DataLoaders of a single execution. DataLoaders cache
+	 * their results and therefore must not be shared between executions.
+	 *
+	 * @return new DataLoaderRegistry
+	 */
+	public DataLoaderRegistry newDataLoaderRegistry() {
+		DataLoaderRegistry registry = new DataLoaderRegistry();
+		DataLoaderOptions options = (
+			DataLoaderOptions.newOptions()
+			.setCacheKeyFunction(env -> new FetchKey((DataFetchingEnvironment) env))
+		);
+		for (Map.Entry<String, BatchLoader<DataFetchingEnvironment, Try<Object>>> entry : batchLoaders.entrySet()) {
+			DataLoader<DataFetchingEnvironment, Object> loader = DataLoader.newDataLoaderWithTry(
+				entry.getValue(), options);
+			registry.register(entry.getKey(), loader);
+		}
+		return registry;
+	}
+
+}
@@ -42,6 +42,8 @@ public class CorsFilter implements ContainerResponseFilter {
 			"Access-Control-Allow-Methods",
 			"GET, POST, PUT, DELETE, OPTIONS, HEAD"
 		);
+		// not a safelisted response header; sent with 429 and 503 by AnalysisAdmission
+		response.getHeaders().add("Access-Control-Expose-Headers", "Retry-After");
 	}
 
 }
\ No newline at end of file
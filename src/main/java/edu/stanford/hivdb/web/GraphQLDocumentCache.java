@@ -0,0 +1,189 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import jakarta.ws.rs.core.Response.Status;
+
+import graphql.ExecutionInput;
+import graphql.language.Document;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+
+/**
+ * Bounded cache of parsed and validated GraphQL documents, plus the store
+ * of Apollo-style persisted queries.
+ *
+ * Both are keyed by the SHA-256 hex digest of the query text, which is the
+ * <code>extensions.persistedQuery.sha256Hash</code> value sent by Apollo
+ * clients. A document is validated against the schema of the GraphQL
+ * instance it is registered with, therefore each instance needs its own
+ * cache. The sizes are configurable with environment variables
+ * <code>SIERRA_DOCUMENT_CACHE_SIZE</code> and
+ * <code>SIERRA_PERSISTED_QUERY_CACHE_SIZE</code>.
+ */
+class GraphQLDocumentCache implements PreparsedDocumentProvider {
+
+	public static final String PERSISTED_QUERY_NOT_FOUND = "PERSISTED_QUERY_NOT_FOUND";
+	public static final String PERSISTED_QUERY_HASH_MISMATCH = "PERSISTED_QUERY_HASH_MISMATCH";
+
+	private final Map<String, PreparsedDocumentEntry> documents;
+	private final Map<String, String> persistedQueries;
+
+	public static class PersistedQueryException extends IllegalArgumentException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Status status;
+		private final String code;
+
+		public PersistedQueryException(Status status, String code, String message) {
+			super(message);
+			this.status = status;
+			this.code = code;
+		}
+
+		public Status getStatus() { return status; }
+
+		public String getCode() { return code; }
+
+	}
+
+	public GraphQLDocumentCache() {
+		this(
+			Settings.getInt("SIERRA_DOCUMENT_CACHE_SIZE", 256),
+			Settings.getInt("SIERRA_PERSISTED_QUERY_CACHE_SIZE", 1024));
+	}
+
+	public GraphQLDocumentCache(int maxDocuments, int maxPersistedQueries) {
+		documents = newLRUMap(maxDocuments);
+		persistedQueries = newLRUMap(maxPersistedQueries);
+	}
+
+	static <V> Map<String, V> newLRUMap(int maxSize) {
+		return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > maxSize;
+			}
+		});
+	}
+
+	public static String sha256Hex(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(
+				digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public PreparsedDocumentEntry getDocument(
+		ExecutionInput executionInput,
+		Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction
+	) {
+		String key = sha256Hex(executionInput.getQuery());
+		PreparsedDocumentEntry entry = documents.get(key);
+		if (entry == null) {
+			// parse outside of the lock; a concurrent duplicate parse is harmless
+			entry = parseAndValidateFunction.apply(executionInput);
+			if (!entry.hasErrors()) {
+				// invalid queries are not cached, they are rare and would only
+				// push the useful entries out
+				documents.put(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the document of a query before it is executed: the cached
+	 * document if the query was executed before, otherwise a freshly parsed
+	 * one, which is not cached since it isn't validated yet.
+	 *
+	 * @param query the query text
+	 * @return the document, or null if the query has syntax errors
+	 */
+	public Document parse(String query) {
+		PreparsedDocumentEntry entry = documents.get(sha256Hex(query));
+		if (entry != null) {
+			return entry.getDocument();
+		}
+		try {
+			return new Parser().parseDocument(query);
+		} catch (InvalidSyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Resolves the query text of a request which may use Apollo-style
+	 * persisted query <code>extensions</code>.
+	 *
+	 * @param query the query text, can be null if a hash is given
+	 * @param extensions the request extensions, can be null
+	 * @return the query text to be executed
+	 * @throws PersistedQueryException if the hash is unknown or mismatches
+	 */
+	public String resolveQuery(String query, Map<String, Object> extensions) {
+		String sha256Hash = null;
+		if (extensions != null && extensions.get("persistedQuery") instanceof Map) {
+			Object hash = ((Map<?, ?>) extensions.get("persistedQuery")).get("sha256Hash");
+			sha256Hash = hash == null ? null : hash.toString();
+		}
+		return resolveQuery(query, sha256Hash);
+	}
+
+	public String resolveQuery(String query, String sha256Hash) {
+		if (sha256Hash == null || sha256Hash.isEmpty()) {
+			return query == null ? "" : query;
+		}
+		sha256Hash = sha256Hash.toLowerCase();
+		if (query == null || query.isEmpty()) {
+			String persisted = persistedQueries.get(sha256Hash);
+			if (persisted == null) {
+				throw new PersistedQueryException(
+					Status.OK, PERSISTED_QUERY_NOT_FOUND, "PersistedQueryNotFound");
+			}
+			return persisted;
+		}
+		if (!sha256Hex(query).equals(sha256Hash)) {
+			throw new PersistedQueryException(
+				Status.BAD_REQUEST, PERSISTED_QUERY_HASH_MISMATCH,
+				"Provided sha256Hash does not match the query.");
+		}
+		persistedQueries.put(sha256Hash, query);
+		return query;
+	}
+
+}
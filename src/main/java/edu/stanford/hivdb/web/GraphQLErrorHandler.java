@@ -0,0 +1,123 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+import edu.stanford.hivdb.utilities.Json;
+import edu.stanford.hivdb.web.GraphQLDocumentCache.PersistedQueryException;
+import graphql.ExceptionWhileDataFetching;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.SerializationError;
+import graphql.UnresolvedTypeError;
+
+/**
+ * Converts GraphQL errors into the JSON-friendly structure returned by
+ * both the HIV-1 and HIV-2 GraphQL endpoints.
+ */
+final class GraphQLErrorHandler {
+
+	private GraphQLErrorHandler() {}
+
+	public static List<Map<String, Object>> handleErrors(ExecutionResult result) {
+		List<Map<String, Object>> errors = new ArrayList<>();
+		for (GraphQLError error : result.getErrors()) {
+			Map<String, Object> errorMap = new LinkedHashMap<>();
+			errorMap.put("type", error.getErrorType());
+			errorMap.put("message", error.getMessage());
+			errorMap.put("locations", error.getLocations());
+			if (error.getExtensions() != null) {
+				errorMap.put("extensions", error.getExtensions());
+			}
+			Throwable innerExc = null;
+			if (error instanceof SerializationError) {
+				innerExc = ((SerializationError) error).getException();
+			}
+			else if (error instanceof ExceptionWhileDataFetching) {
+				innerExc = ((ExceptionWhileDataFetching) error).getException();
+			}
+			else if (error instanceof UnresolvedTypeError) {
+				innerExc = ((UnresolvedTypeError) error).getException();
+			}
+			if (innerExc != null) {
+				List<Map<String, Object>> details = new ArrayList<>();
+				do {
+					Map<String, Object> errDetail = new LinkedHashMap<>();
+					errDetail.put("exception", innerExc.toString());
+					errDetail.put("message", innerExc.getMessage());
+					errDetail.put("stackTrace", innerExc.getStackTrace());
+					details.add(errDetail);
+					innerExc = innerExc.getCause();
+				} while (innerExc != null);
+				errorMap.put("details", details);
+			}
+			errors.add(errorMap);
+			/*else if (error instanceof InvalidSyntaxError) {
+				Map<String, Object> errorMap = new LinkedHashMap<>();
+				errorMap.put("type", "InvalidSyntaxError");
+				errorMap.put("message", ((InvalidSyntaxError) error).getMessage());
+				errorMap.put("locations", ((InvalidSyntaxError) error).getLocations());
+				errors.add(errorMap);
+			}*/
+			// errors.add(error);
+		}
+		return errors;
+	}
+
+	public static List<Map<String, Object>> singleError(String message) {
+		return singleError(message, null);
+	}
+
+	public static List<Map<String, Object>> singleError(String message, String code) {
+		Map<String, Object> errorMap = new LinkedHashMap<>();
+		errorMap.put("message", message);
+		if (code != null) {
+			Map<String, Object> extensions = new LinkedHashMap<>();
+			extensions.put("code", code);
+			errorMap.put("extensions", extensions);
+		}
+		List<Map<String, Object>> errors = new ArrayList<>();
+		errors.add(errorMap);
+		return errors;
+	}
+
+	public static Response errorResponse(Status status, String message, String code) {
+		Map<String, Object> output = new LinkedHashMap<>();
+		output.put("errors", singleError(message, code));
+		output.put("data", null);
+		return Response
+			.status(status)
+			.type(MediaType.APPLICATION_JSON)
+			.entity(Json.dumps(output))
+			.build();
+	}
+
+	public static Response errorResponse(PersistedQueryException e) {
+		return errorResponse(e.getStatus(), e.getMessage(), e.getCode());
+	}
+
+}
@@ -0,0 +1,186 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process registry of GraphQL execution metrics, written in the
+ * Prometheus text exposition format by {@link MetricsService}.
+ */
+class GraphQLMetrics {
+
+	private static final GraphQLMetrics singleton = new GraphQLMetrics();
+
+	// upper bounds in seconds
+	private static final double[] BUCKETS = {
+		0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300
+	};
+
+	private final Map<String, Histogram> fieldLatencies = new ConcurrentHashMap<>();
+	private final Map<String, Histogram> requestLatencies = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> sequences = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> bytes = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> slowRequests = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> costRejections = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> resultCacheHits = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> resultCacheMisses = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> coalescedBatches = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> coalescedRequests = new ConcurrentHashMap<>();
+
+	private static class Histogram {
+		private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+		private final LongAdder sumNanos = new LongAdder();
+
+		public Histogram() {
+			for (int i = 0; i < counts.length; i ++) {
+				counts[i] = new LongAdder();
+			}
+		}
+
+		public void observe(long nanos) {
+			double seconds = nanos / 1e9;
+			int i = 0;
+			while (i < BUCKETS.length && seconds > BUCKETS[i]) {
+				i ++;
+			}
+			counts[i].increment();
+			sumNanos.add(nanos);
+		}
+
+		public void write(Writer writer, String name, String labels) throws IOException {
+			long cumulative = 0;
+			for (int i = 0; i < counts.length; i ++) {
+				cumulative += counts[i].sum();
+				String le = i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf";
+				writer.write(String.format(
+					"%s_bucket{%s,le=\"%s\"} %d\n", name, labels, le, cumulative));
+			}
+			writer.write(String.format(
+				"%s_sum{%s} %s\n", name, labels, Double.toString(sumNanos.sum() / 1e9)));
+			writer.write(String.format("%s_count{%s} %d\n", name, labels, cumulative));
+		}
+	}
+
+	public static GraphQLMetrics getInstance() {
+		return singleton;
+	}
+
+	private GraphQLMetrics() {}
+
+	private static String key(String... labels) {
+		return String.join("\t", labels);
+	}
+
+	public void recordFieldFetch(String virusName, String field, long nanos) {
+		fieldLatencies
+			.computeIfAbsent(key(virusName, field), k -> new Histogram())
+			.observe(nanos);
+	}
+
+	public void recordRequest(
+		String virusName, long nanos, int numSequences, long numBytes, boolean isSlow
+	) {
+		requestLatencies.computeIfAbsent(virusName, k -> new Histogram()).observe(nanos);
+		requests.computeIfAbsent(virusName, k -> new LongAdder()).increment();
+		sequences.computeIfAbsent(virusName, k -> new LongAdder()).add(numSequences);
+		bytes.computeIfAbsent(virusName, k -> new LongAdder()).add(numBytes);
+		if (isSlow) {
+			slowRequests.computeIfAbsent(virusName, k -> new LongAdder()).increment();
+		}
+	}
+
+	public void recordCostRejection(String virusName) {
+		costRejections.computeIfAbsent(virusName, k -> new LongAdder()).increment();
+	}
+
+	public void recordResultCache(String virusName, int numHits, int numMisses) {
+		resultCacheHits.computeIfAbsent(virusName, k -> new LongAdder()).add(numHits);
+		resultCacheMisses.computeIfAbsent(virusName, k -> new LongAdder()).add(numMisses);
+	}
+
+	public void recordCoalescedBatch(String virusName, int numRequests) {
+		coalescedBatches.computeIfAbsent(virusName, k -> new LongAdder()).increment();
+		coalescedRequests.computeIfAbsent(virusName, k -> new LongAdder()).add(numRequests);
+	}
+
+	private static void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+		writer.write(String.format("# HELP %s %s\n# TYPE %s %s\n", name, help, name, type));
+	}
+
+	private static void writeCounters(
+		Writer writer, String name, String help, Map<String, LongAdder> counters
+	) throws IOException {
+		writeHeader(writer, name, "counter", help);
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+			writer.write(String.format(
+				"%s{virus=\"%s\"} %d\n", name, entry.getKey(), entry.getValue().sum()));
+		}
+	}
+
+	public void write(Writer writer) throws IOException {
+		String name = "sierra_graphql_field_fetch_seconds";
+		writeHeader(writer, name, "histogram", "Latency of non-trivial GraphQL data fetchers.");
+		for (Map.Entry<String, Histogram> entry : new TreeMap<>(fieldLatencies).entrySet()) {
+			String[] labels = entry.getKey().split("\t", 2);
+			entry.getValue().write(writer, name, String.format(
+				"virus=\"%s\",field=\"%s\"", labels[0], labels[1]));
+		}
+		name = "sierra_graphql_request_seconds";
+		writeHeader(writer, name, "histogram", "Latency of GraphQL executions.");
+		for (Map.Entry<String, Histogram> entry : new TreeMap<>(requestLatencies).entrySet()) {
+			entry.getValue().write(writer, name, String.format("virus=\"%s\"", entry.getKey()));
+		}
+		writeCounters(
+			writer, "sierra_graphql_requests_total",
+			"Number of GraphQL executions.", requests);
+		writeCounters(
+			writer, "sierra_graphql_request_sequences_total",
+			"Number of sequences and sequence reads submitted.", sequences);
+		writeCounters(
+			writer, "sierra_graphql_request_bytes_total",
+			"Size of submitted GraphQL requests.", bytes);
+		writeCounters(
+			writer, "sierra_graphql_slow_requests_total",
+			"Number of GraphQL executions logged as slow queries.", slowRequests);
+		writeCounters(
+			writer, "sierra_graphql_cost_rejections_total",
+			"Number of GraphQL requests rejected for exceeding the query cost budget.",
+			costRejections);
+		writeCounters(
+			writer, "sierra_result_cache_hits_total",
+			"Number of sequences answered from the result cache.", resultCacheHits);
+		writeCounters(
+			writer, "sierra_result_cache_misses_total",
+			"Number of cacheable sequences not found in the result cache.", resultCacheMisses);
+		writeCounters(
+			writer, "sierra_coalesced_batches_total",
+			"Number of executions made of coalesced requests.", coalescedBatches);
+		writeCounters(
+			writer, "sierra_coalesced_requests_total",
+			"Number of requests executed as part of a coalesced batch.", coalescedRequests);
+	}
+
+}
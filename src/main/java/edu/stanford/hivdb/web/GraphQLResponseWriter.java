@@ -0,0 +1,187 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import edu.stanford.hivdb.utilities.Json;
+import graphql.ExecutionResult;
+
+/**
+ * Writes an ExecutionResult as JSON directly into the response stream,
+ * gzip-compressed when the client accepts it.
+ *
+ * Unlike <code>Json.dumps</code>, which builds the whole document as one
+ * String, the data is serialized while being walked, so a response of tens
+ * of megabytes (e.g. <code>allGeneSequenceReads</code> with histograms) is
+ * never held in memory twice and its first bytes are sent immediately.
+ *
+ * Only gzip is offered; other encodings would need native libraries.
+ */
+class GraphQLResponseWriter implements StreamingOutput {
+
+	public static final String GZIP = "gzip";
+
+	// compact JSON shared by the web package
+	static final Gson gson = (
+		new GsonBuilder()
+		.disableHtmlEscaping()
+		.serializeNulls()
+		.create()
+	);
+
+	private final List<Map<String, Object>> errors;
+	private final Object data;
+	private final boolean gzip;
+
+	private GraphQLResponseWriter(
+		List<Map<String, Object>> errors, Object data, boolean gzip
+	) {
+		this.errors = errors;
+		this.data = data;
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Tells if the given Accept-Encoding header value allows gzip.
+	 *
+	 * @param acceptEncoding Accept-Encoding header value, can be null
+	 * @return true if gzip is acceptable
+	 */
+	public static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		Boolean gzip = null;
+		Boolean wildcard = null;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] params = coding.trim().split(";");
+			String name = params[0].trim().toLowerCase();
+			boolean accepted = true;
+			for (int i = 1; i < params.length; i ++) {
+				if (params[i].replace(" ", "").matches("q=0(\\.0*)?")) {
+					accepted = false;
+				}
+			}
+			if (name.equals(GZIP) || name.equals("x-gzip")) {
+				gzip = accepted;
+			}
+			else if (name.equals("*")) {
+				wildcard = accepted;
+			}
+		}
+		// an explicit gzip entry takes precedence over "*"
+		return gzip != null ? gzip : wildcard != null && wildcard;
+	}
+
+	/**
+	 * Wraps the output stream with a gzip encoder if requested. The encoder
+	 * flushes compressed data whenever the returned stream is flushed.
+	 *
+	 * @param output response stream
+	 * @param gzip whether to compress
+	 * @return the stream to write to
+	 * @throws IOException
+	 */
+	public static OutputStream encode(OutputStream output, boolean gzip) throws IOException {
+		return gzip ? new GZIPOutputStream(output, 8192, true) : output;
+	}
+
+	/**
+	 * Adds the headers describing the content coding to the response.
+	 *
+	 * @param builder response builder
+	 * @param gzip whether the entity is compressed
+	 * @return the response builder
+	 */
+	public static ResponseBuilder withEncoding(ResponseBuilder builder, boolean gzip) {
+		builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (gzip) {
+			builder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+		}
+		return builder;
+	}
+
+	public static Response toResponse(ExecutionResult result, String acceptEncoding) {
+		List<Map<String, Object>> errors = GraphQLErrorHandler.handleErrors(result);
+		Status status = Status.OK;
+		if (!errors.isEmpty()) {
+			status = Status.BAD_REQUEST;
+		}
+		else {
+			// react-relay rejected when
+			// key "errors" presented even it's empty
+			errors = null;
+		}
+		boolean gzip = acceptsGzip(acceptEncoding);
+		return withEncoding(
+			Response
+			.status(status)
+			.type(MediaType.APPLICATION_JSON)
+			.entity(new GraphQLResponseWriter(errors, result.getData(), gzip)),
+			gzip
+		).build();
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		OutputStream encoded = encode(output, gzip);
+		JsonWriter writer = new JsonWriter(new BufferedWriter(
+			new OutputStreamWriter(encoded, StandardCharsets.UTF_8)));
+		writer.setSerializeNulls(true);
+		writer.beginObject();
+		if (errors != null) {
+			// errors carry exception details which Json knows how to serialize
+			writer.name("errors");
+			gson.toJson(JsonParser.parseString(Json.dumps(errors)), writer);
+		}
+		writer.name("data");
+		if (data == null) {
+			writer.nullValue();
+		}
+		else {
+			gson.toJson(data, data.getClass(), writer);
+		}
+		writer.endObject();
+		writer.flush();
+		if (encoded instanceof GZIPOutputStream) {
+			((GZIPOutputStream) encoded).finish();
+		}
+	}
+
+}
@@ -0,0 +1,193 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLContext;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLNamedType;
+
+/**
+ * Records per-field fetch latencies and per-request totals into
+ * {@link GraphQLMetrics}, and logs queries slower than
+ * <code>SIERRA_SLOW_QUERY_MILLIS</code> (default 10000) together with the
+ * <code>SIERRA_SLOW_QUERY_TOP_FIELDS</code> (default 5) most expensive
+ * fields.
+ *
+ * Trivial (property) data fetchers are skipped; they are cheap and are
+ * called once for every field of every result object. Fields resolved
+ * through DataLoaders are not timed here either, since their fetch only
+ * completes with the whole batch; {@link BatchedDataFetchers} reports the
+ * time spent on each of them through {@link #recordFieldFetch}.
+ */
+class MetricsInstrumentation extends SimpleInstrumentation {
+
+	public static final String REQUEST_BYTES = "requestBytes";
+
+	private static final String REQUEST_STATE = MetricsInstrumentation.class.getName() + ".state";
+
+	private static final Logger LOGGER = LogManager.getLogger(MetricsInstrumentation.class);
+
+	private final String virusName;
+	private final long slowQueryNanos;
+	private final int topFields;
+
+	private static class FieldTotal {
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder calls = new LongAdder();
+	}
+
+	private static class RequestState implements InstrumentationState {
+		private final String virusName;
+		private final long startNanos = System.nanoTime();
+		private final Map<String, FieldTotal> fields = new ConcurrentHashMap<>();
+		private volatile int numSequences = 0;
+
+		public RequestState(String virusName) {
+			this.virusName = virusName;
+		}
+
+		public void recordFieldFetch(String field, long nanos) {
+			GraphQLMetrics.getInstance().recordFieldFetch(virusName, field, nanos);
+			FieldTotal total = fields.computeIfAbsent(field, k -> new FieldTotal());
+			total.nanos.add(nanos);
+			total.calls.increment();
+		}
+	}
+
+	public MetricsInstrumentation(String virusName) {
+		this.virusName = virusName;
+		this.slowQueryNanos = Settings.getInt("SIERRA_SLOW_QUERY_MILLIS", 10000) * 1_000_000L;
+		this.topFields = Settings.getInt("SIERRA_SLOW_QUERY_TOP_FIELDS", 5);
+	}
+
+	@Override
+	public InstrumentationState createState() {
+		return new RequestState(virusName);
+	}
+
+	/**
+	 * Records the time spent on one invocation of a field by the execution
+	 * the environment belongs to.
+	 *
+	 * @param env data fetching environment of the field
+	 * @param field field name as <code>Type.field</code>
+	 * @param nanos time spent
+	 */
+	public static void recordFieldFetch(DataFetchingEnvironment env, String field, long nanos) {
+		Object context = env.getContext();
+		if (!(context instanceof GraphQLContext)) {
+			return;
+		}
+		RequestState state = ((GraphQLContext) context).get(REQUEST_STATE);
+		if (state != null) {
+			state.recordFieldFetch(field, nanos);
+		}
+	}
+
+	@Override
+	public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters) {
+		if (
+			parameters.isTrivialDataFetcher() ||
+			BatchedDataFetchers.isBatched(parameters.getEnvironment())
+		) {
+			return SimpleInstrumentationContext.noOp();
+		}
+		RequestState state = parameters.getInstrumentationState();
+		String field = String.format(
+			"%s.%s",
+			((GraphQLNamedType) parameters.getEnvironment().getParentType()).getName(),
+			parameters.getField().getName());
+		long start = System.nanoTime();
+		return SimpleInstrumentationContext.whenCompleted(
+			(result, error) -> state.recordFieldFetch(field, System.nanoTime() - start));
+	}
+
+	@Override
+	public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+		InstrumentationExecuteOperationParameters parameters
+	) {
+		ExecutionContext context = parameters.getExecutionContext();
+		RequestState state = parameters.getInstrumentationState();
+		state.numSequences = AnalysisAdmission.countSequences(
+			context.getGraphQLSchema(), context.getDocument(),
+			context.getOperationDefinition().getName(), context.getVariables());
+		return super.beginExecuteOperation(parameters);
+	}
+
+	@Override
+	public InstrumentationContext<ExecutionResult> beginExecution(InstrumentationExecutionParameters parameters) {
+		RequestState state = parameters.getInstrumentationState();
+		Object context = parameters.getContext();
+		if (context instanceof GraphQLContext) {
+			// for the batch loaders, which only see the environment
+			((GraphQLContext) context).put(REQUEST_STATE, state);
+		}
+		return SimpleInstrumentationContext.whenCompleted((result, error) -> {
+			long nanos = System.nanoTime() - state.startNanos;
+			int numSequences = state.numSequences;
+			long numBytes = 0;
+			if (context instanceof GraphQLContext) {
+				Number requestBytes = ((GraphQLContext) context).get(REQUEST_BYTES);
+				numBytes = requestBytes == null ? 0 : requestBytes.longValue();
+			}
+			boolean isSlow = nanos >= slowQueryNanos;
+			GraphQLMetrics.getInstance().recordRequest(
+				virusName, nanos, numSequences, numBytes, isSlow);
+			if (isSlow) {
+				logSlowQuery(parameters.getQuery(), state, nanos, numSequences, numBytes);
+			}
+		});
+	}
+
+	private void logSlowQuery(
+		String query, RequestState state, long nanos, int numSequences, long numBytes
+	) {
+		String top = state.fields.entrySet().stream()
+			.sorted((a, b) -> Long.compare(b.getValue().nanos.sum(), a.getValue().nanos.sum()))
+			.limit(topFields)
+			.map(e -> String.format(
+				"%s=%dms/%d",
+				e.getKey(),
+				e.getValue().nanos.sum() / 1_000_000,
+				e.getValue().calls.sum()))
+			.collect(Collectors.joining(", "));
+		LOGGER.warn(
+			"Slow {} query {} took {}ms (sequences: {}, bytes: {}); top fields: {}",
+			virusName, GraphQLDocumentCache.sha256Hex(query), nanos / 1_000_000,
+			numSequences, numBytes, top);
+	}
+
+}
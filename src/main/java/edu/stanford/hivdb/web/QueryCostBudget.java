@@ -0,0 +1,251 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import graphql.analysis.QueryTraverser;
+import graphql.analysis.QueryVisitorFieldEnvironment;
+import graphql.analysis.QueryVisitorStub;
+import graphql.execution.AbortExecutionException;
+import graphql.language.Document;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+
+/**
+ * Rejects queries whose estimated cost exceeds
+ * <code>SIERRA_MAX_QUERY_COST</code> (default 100000, 0 disables the check)
+ * before they are admitted, so they neither wait in the queue nor take an
+ * analysis slot. Rejections are counted in {@link GraphQLMetrics}.
+ *
+ * The cost of a field is its weight plus the cost of its sub-fields,
+ * multiplied by the number of analysis inputs it receives. Leaf fields
+ * weigh 0, object fields weigh 1 unless listed in {@link #FIELD_WEIGHTS}.
+ * An analysis input is an item of a list argument holding input objects or
+ * lists (sequences, sequence reads, mutation patterns); sequence reads count
+ * once per {@link #POSITIONS_PER_UNIT} positions of <code>allReads</code>.
+ *
+ * The cost is computed per request instead of during validation, since
+ * it depends on the variables and cached documents are not re-validated.
+ */
+class QueryCostBudget {
+
+	public static final String ERROR_CODE = "QUERY_COST_EXCEEDED";
+
+	protected static final int POSITIONS_PER_UNIT = 1000;
+
+	// rough relative costs measured against a plain object field
+	protected static final Map<String, Integer> FIELD_WEIGHTS = new HashMap<>();
+
+	static {
+		FIELD_WEIGHTS.put("alignedGeneSequences", 2);
+		FIELD_WEIGHTS.put("allGeneSequenceReads", 2);
+		FIELD_WEIGHTS.put("mutations", 2);
+		FIELD_WEIGHTS.put("comments", 2);
+		FIELD_WEIGHTS.put("frameShifts", 2);
+		FIELD_WEIGHTS.put("histogram", 5);
+		FIELD_WEIGHTS.put("prettyPairwise", 10);
+		FIELD_WEIGHTS.put("genotypes", 10);
+		FIELD_WEIGHTS.put("subtypes", 10);
+		FIELD_WEIGHTS.put("subtypeText", 10);
+		FIELD_WEIGHTS.put("bestMatchingGenotype", 10);
+		FIELD_WEIGHTS.put("bestMatchingSubtype", 10);
+		FIELD_WEIGHTS.put("mutationPrevalences", 10);
+		FIELD_WEIGHTS.put("drugResistance", 20);
+		FIELD_WEIGHTS.put("algorithmComparison", 20);
+	}
+
+	private final String virusName;
+	private final int maxCost;
+
+	public static class QueryCostExceededException extends AbortExecutionException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long cost;
+		private final int maxCost;
+
+		public QueryCostExceededException(long cost, int maxCost) {
+			super(String.format(
+				"Query cost %d exceeds the budget of %d. Please split " +
+				"the sequences into smaller requests or query fewer fields.",
+				cost, maxCost));
+			this.cost = cost;
+			this.maxCost = maxCost;
+		}
+
+		public long getCost() {
+			return cost;
+		}
+
+		@Override
+		public Map<String, Object> getExtensions() {
+			Map<String, Object> extensions = new LinkedHashMap<>();
+			extensions.put("code", ERROR_CODE);
+			extensions.put("cost", cost);
+			extensions.put("maxCost", maxCost);
+			return extensions;
+		}
+
+	}
+
+	public QueryCostBudget(String virusName) {
+		this(virusName, Settings.getInt("SIERRA_MAX_QUERY_COST", 100000));
+	}
+
+	public QueryCostBudget(String virusName, int maxCost) {
+		this.virusName = virusName;
+		this.maxCost = maxCost;
+	}
+
+	protected static int getFieldWeight(QueryVisitorFieldEnvironment env) {
+		Integer weight = FIELD_WEIGHTS.get(env.getField().getName());
+		if (weight != null) {
+			return weight;
+		}
+		GraphQLType type = GraphQLTypeUtil.unwrapAll(env.getFieldDefinition().getType());
+		return GraphQLTypeUtil.isLeaf(type) ? 0 : 1;
+	}
+
+	protected static long countUnits(Object value) {
+		if (value instanceof Map) {
+			Object allReads = ((Map<?, ?>) value).get("allReads");
+			if (allReads instanceof Collection) {
+				return Math.max(
+					1, (((Collection<?>) allReads).size() + POSITIONS_PER_UNIT - 1) / POSITIONS_PER_UNIT);
+			}
+			return 1;
+		}
+		return value instanceof Collection ? 1 : 0;
+	}
+
+	protected static long getMultiplier(QueryVisitorFieldEnvironment env) {
+		long units = 0;
+		for (Object value : env.getArguments().values()) {
+			if (value instanceof Collection) {
+				for (Object item : (Collection<?>) value) {
+					units += countUnits(item);
+				}
+			}
+		}
+		return Math.max(1, units);
+	}
+
+	/**
+	 * Estimates the cost of an operation.
+	 *
+	 * @param schema GraphQL schema
+	 * @param document parsed query
+	 * @param operationName operation to be executed, can be null
+	 * @param variables GraphQL variables
+	 * @return estimated cost
+	 */
+	public static long calcCost(
+		GraphQLSchema schema, Document document,
+		String operationName, Map<String, Object> variables
+	) {
+		Map<QueryVisitorFieldEnvironment, Long> childCosts = new HashMap<>();
+		long[] total = {0};
+		QueryTraverser traverser = (
+			QueryTraverser.newQueryTraverser()
+			.schema(schema)
+			.document(document)
+			.operationName(operationName)
+			.variables(variables)
+			.build()
+		);
+		traverser.visitPostOrder(new QueryVisitorStub() {
+			@Override
+			public void visitField(QueryVisitorFieldEnvironment env) {
+				if (env.isTypeNameIntrospectionField()) {
+					return;
+				}
+				long cost = (
+					(getFieldWeight(env) + childCosts.getOrDefault(env, 0L)) *
+					getMultiplier(env)
+				);
+				QueryVisitorFieldEnvironment parent = env.getParentEnvironment();
+				if (parent == null) {
+					total[0] += cost;
+				}
+				else {
+					childCosts.merge(parent, cost, Long::sum);
+				}
+			}
+		});
+		return total[0];
+	}
+
+	/**
+	 * Estimates the cost of an operation which may be invalid.
+	 *
+	 * @param schema GraphQL schema
+	 * @param document parsed query, can be null if it has syntax errors
+	 * @param operationName operation to be executed, can be null
+	 * @param variables GraphQL variables
+	 * @return estimated cost, 0 if the operation is invalid
+	 */
+	public static long estimateCost(
+		GraphQLSchema schema, Document document,
+		String operationName, Map<String, Object> variables
+	) {
+		if (document == null) {
+			return 0;
+		}
+		try {
+			return calcCost(schema, document, operationName, variables);
+		} catch (RuntimeException e) {
+			// the query is invalid and will be rejected by the validation
+			return 0;
+		}
+	}
+
+	public int getMaxCost() {
+		return maxCost;
+	}
+
+	/**
+	 * Prices an operation before it is admitted.
+	 *
+	 * @param schema GraphQL schema
+	 * @param document parsed query, can be null if it has syntax errors
+	 * @param operationName operation to be executed, can be null
+	 * @param variables GraphQL variables
+	 * @return the rejection if the operation is over the budget, otherwise null
+	 */
+	public QueryCostExceededException check(
+		GraphQLSchema schema, Document document,
+		String operationName, Map<String, Object> variables
+	) {
+		if (maxCost <= 0) {
+			return null;
+		}
+		long cost = estimateCost(schema, document, operationName, variables);
+		if (cost <= maxCost) {
+			return null;
+		}
+		GraphQLMetrics.getInstance().recordCostRejection(virusName);
+		return new QueryCostExceededException(cost, maxCost);
+	}
+
+}
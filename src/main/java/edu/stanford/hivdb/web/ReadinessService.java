@@ -0,0 +1,42 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+@Path("/ready")
+public class ReadinessService {
+
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response get() {
+		ServiceWarmup warmup = ServiceWarmup.getInstance();
+		return Response
+			.status(warmup.isReady() ? Status.OK : Status.SERVICE_UNAVAILABLE)
+			.type(MediaType.TEXT_PLAIN)
+			.entity(warmup.getStatus())
+			.build();
+	}
+
+}
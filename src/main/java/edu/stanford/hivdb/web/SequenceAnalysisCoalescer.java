@@ -0,0 +1,318 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphQLContext;
+
+/**
+ * Coalesces concurrent <code>sequenceAnalysis(sequences: $sequences)</code>
+ * requests into micro-batches executed as a single request.
+ *
+ * The <code>sequenceAnalysis</code> field aligns all of its sequences with
+ * one aligner invocation, so many concurrent requests of one or two
+ * sequences each cost far more than one request carrying all of them.
+ * Requests with the same query and the same other variables therefore wait
+ * up to <code>SIERRA_COALESCE_MILLIS</code> milliseconds (default 0, i.e.
+ * coalescing is disabled) for each other. A micro-batch is executed once
+ * the window elapsed or once it holds <code>SIERRA_COALESCE_MAX_SEQUENCES</code>
+ * (default 50) sequences; larger requests are never delayed. Each request
+ * then receives its own slice of the result.
+ *
+ * A micro-batch also stops growing before the sum of the estimated costs of
+ * its requests exceeds the query cost budget (see {@link QueryCostBudget}),
+ * so it is never rejected as a whole; a request over the budget on its own
+ * is executed right away and rejected alone.
+ *
+ * If the micro-batch returns errors, its requests are executed again one
+ * by one, so every request only sees the errors of its own sequences.
+ * Every execution, merged or not, is given a DataLoader registry of its
+ * own, since DataLoaders cache their results per registry.
+ */
+class SequenceAnalysisCoalescer {
+
+	private static final String SEQUENCES = "sequences";
+
+	private static final ScheduledExecutorService timer =
+		Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "sierra-coalescer");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+	private final String virusName;
+	private final BatchedDataFetchers batchedFetchers;
+	private final Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor;
+	private final int windowMillis;
+	private final int maxSequences;
+	private final ToLongFunction<ExecutionInput> pricer;
+	private final int maxCost;
+	private final Map<String, Batch> batches = new HashMap<>();
+
+	private static class Request {
+		private final ExecutionInput input;
+		private final List<?> sequences;
+		private final long cost;
+		private final CompletableFuture<ExecutionResult> future = new CompletableFuture<>();
+
+		public Request(ExecutionInput input, List<?> sequences, long cost) {
+			this.input = input;
+			this.sequences = sequences;
+			this.cost = cost;
+		}
+	}
+
+	private static class Batch {
+		private final String field;
+		private final List<Request> requests = new ArrayList<>();
+		private int numSequences = 0;
+		private long cost = 0;
+
+		public Batch(String field) {
+			this.field = field;
+		}
+
+		public void add(Request request) {
+			requests.add(request);
+			numSequences += request.sequences.size();
+			cost += request.cost;
+		}
+	}
+
+	public SequenceAnalysisCoalescer(
+		String virusName, BatchedDataFetchers batchedFetchers,
+		Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor,
+		ToLongFunction<ExecutionInput> pricer, int maxCost
+	) {
+		this(
+			virusName, batchedFetchers, executor,
+			Settings.getInt("SIERRA_COALESCE_MILLIS", 0),
+			Settings.getInt("SIERRA_COALESCE_MAX_SEQUENCES", 50),
+			pricer, maxCost);
+	}
+
+	public SequenceAnalysisCoalescer(
+		String virusName, BatchedDataFetchers batchedFetchers,
+		Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor,
+		int windowMillis, int maxSequences
+	) {
+		this(virusName, batchedFetchers, executor, windowMillis, maxSequences, input -> 0, 0);
+	}
+
+	/**
+	 * @param virusName name of the virus, for metrics
+	 * @param batchedFetchers fetchers which give each execution its registry
+	 * @param executor executes an input, merged or not
+	 * @param windowMillis how long a request waits for others, 0 disables
+	 * @param maxSequences number of sequences a micro-batch is sent at
+	 * @param pricer estimates the cost of an input
+	 * @param maxCost cost budget of a micro-batch, 0 for none
+	 */
+	public SequenceAnalysisCoalescer(
+		String virusName, BatchedDataFetchers batchedFetchers,
+		Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor,
+		int windowMillis, int maxSequences,
+		ToLongFunction<ExecutionInput> pricer, int maxCost
+	) {
+		this.virusName = virusName;
+		this.batchedFetchers = batchedFetchers;
+		this.executor = executor;
+		this.windowMillis = windowMillis;
+		this.maxSequences = maxSequences;
+		this.pricer = pricer;
+		this.maxCost = maxCost;
+	}
+
+	public boolean isEnabled() {
+		return windowMillis > 0 && maxSequences > 1;
+	}
+
+	private static String getBatchKey(ExecutionInput input) {
+		Map<String, Object> otherVariables = new TreeMap<>(input.getVariables());
+		otherVariables.remove(SEQUENCES);
+		return (
+			input.getOperationName() + "\0" + input.getQuery() + "\0" +
+			GraphQLResponseWriter.gson.toJson(otherVariables)
+		);
+	}
+
+	/**
+	 * Executes the input, possibly together with inputs of concurrent
+	 * requests.
+	 *
+	 * @param input execution input
+	 * @return the future of the execution result
+	 */
+	public CompletableFuture<ExecutionResult> execute(ExecutionInput input) {
+		if (!isEnabled()) {
+			return executor.apply(input);
+		}
+		Object sequences = input.getVariables().get(SEQUENCES);
+		if (
+			!(sequences instanceof List) ||
+			((List<?>) sequences).isEmpty() ||
+			((List<?>) sequences).size() >= maxSequences
+		) {
+			return executor.apply(input);
+		}
+		String field = SequenceResultCache.getCacheableField(input.getQuery());
+		if (field.isEmpty()) {
+			return executor.apply(input);
+		}
+		long cost = 0;
+		if (maxCost > 0) {
+			cost = pricer.applyAsLong(input);
+			if (cost > maxCost) {
+				// would take any batch over the budget; rejected on its own
+				return executor.apply(input);
+			}
+		}
+		Request request = new Request(input, (List<?>) sequences, cost);
+		String key = getBatchKey(input);
+		Batch full = null;
+		Batch ready = null;
+		synchronized (batches) {
+			Batch batch = batches.get(key);
+			if (batch != null && (
+				batch.numSequences + request.sequences.size() > maxSequences ||
+				(maxCost > 0 && batch.cost + request.cost > maxCost)
+			)) {
+				// the request doesn't fit in; send the pending batch right away
+				batches.remove(key);
+				full = batch;
+				batch = null;
+			}
+			if (batch == null) {
+				Batch newBatch = new Batch(field);
+				batches.put(key, newBatch);
+				timer.schedule(() -> {
+					synchronized (batches) {
+						if (!batches.remove(key, newBatch)) {
+							return;
+						}
+					}
+					dispatch(newBatch);
+				}, windowMillis, TimeUnit.MILLISECONDS);
+				batch = newBatch;
+			}
+			batch.add(request);
+			if (batch.numSequences == maxSequences) {
+				batches.remove(key);
+				ready = batch;
+			}
+		}
+		if (full != null) {
+			dispatch(full);
+		}
+		if (ready != null) {
+			dispatch(ready);
+		}
+		return request.future;
+	}
+
+	private void executeAlone(Request request) {
+		// the request may already have been part of a merged execution
+		ExecutionInput input = request.input.transform(
+			builder -> builder.dataLoaderRegistry(batchedFetchers.newDataLoaderRegistry()));
+		executor.apply(input).whenComplete((result, error) -> {
+			if (error == null) {
+				request.future.complete(result);
+			}
+			else {
+				request.future.completeExceptionally(error);
+			}
+		});
+	}
+
+	private void dispatch(Batch batch) {
+		if (batch.requests.size() == 1) {
+			executeAlone(batch.requests.get(0));
+			return;
+		}
+		GraphQLMetrics.getInstance().recordCoalescedBatch(virusName, batch.requests.size());
+		ExecutionInput first = batch.requests.get(0).input;
+		List<Object> sequences = new ArrayList<>(batch.numSequences);
+		long requestBytes = 0;
+		for (Request request : batch.requests) {
+			sequences.addAll(request.sequences);
+			Object context = request.input.getContext();
+			if (context instanceof GraphQLContext) {
+				Number bytes = ((GraphQLContext) context).get(MetricsInstrumentation.REQUEST_BYTES);
+				requestBytes += bytes == null ? 0 : bytes.longValue();
+			}
+		}
+		Map<String, Object> variables = new LinkedHashMap<>(first.getVariables());
+		variables.put(SEQUENCES, sequences);
+		GraphQLContext context = (
+			GraphQLContext.newContext()
+			.of(MetricsInstrumentation.REQUEST_BYTES, requestBytes)
+			.build()
+		);
+		ExecutionInput input = first.transform(builder -> builder
+			.variables(variables)
+			.context(context)
+			.dataLoaderRegistry(batchedFetchers.newDataLoaderRegistry()));
+		executor.apply(input).whenComplete((result, error) -> {
+			if (error != null) {
+				for (Request request : batch.requests) {
+					request.future.completeExceptionally(error);
+				}
+				return;
+			}
+			Map<String, Object> data = result.getData();
+			Object items = data == null ? null : data.get(batch.field);
+			if (
+				!result.getErrors().isEmpty() ||
+				!(items instanceof List) ||
+				((List<?>) items).size() != batch.numSequences
+			) {
+				// error paths refer to the merged list
+				for (Request request : batch.requests) {
+					executeAlone(request);
+				}
+				return;
+			}
+			int offset = 0;
+			for (Request request : batch.requests) {
+				int size = request.sequences.size();
+				Map<String, Object> slice = new LinkedHashMap<>();
+				slice.put(batch.field, ((List<?>) items).subList(offset, offset + size));
+				offset += size;
+				request.future.complete(new ExecutionResultImpl(slice, Collections.emptyList()));
+			}
+		});
+	}
+
+}
@@ -0,0 +1,525 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import edu.stanford.hivdb.utilities.Json;
+import edu.stanford.hivdb.web.AnalysisAdmission.AdmissionRejectedException;
+import edu.stanford.hivdb.web.GraphQLDocumentCache.PersistedQueryException;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQLContext;
+
+/**
+ * Runs a sequence analysis query over a FASTA or NDJSON upload and writes
+ * one JSON result per line as soon as each batch of sequences finishes.
+ *
+ * The query is given by the <code>query</code> parameter, by the
+ * <code>sha256Hash</code> of a query persisted earlier, or by a first line
+ * of the body holding a JSON object of the same shape as a GraphQL request,
+ * i.e. <code>{"query": ..., "variables": {...}}</code> or
+ * <code>{"extensions": {...}}</code>; queries of several kilobytes don't
+ * fit in the request line. It must declare a <code>$sequences</code>
+ * variable of type <code>[UnalignedSequenceInput]</code> and is executed
+ * once per batch of <code>batchSize</code> sequences, with the batch as
+ * <code>$sequences</code> and the other variables of the first line, so
+ * only one batch of results is held in memory at any time no matter how
+ * large the upload is. Each element
+ * of the list returned by <code>field</code> is written as its own line;
+ * errors of a batch are written as an extra <code>{"errors": [...]}</code>
+ * line preceding its results. Every batch is subject to the same admission
+ * control and result cache as a regular GraphQL request.
+ */
+class SequenceAnalysisStream implements StreamingOutput {
+
+	public static final String FASTA = "text/x-fasta";
+	public static final String NDJSON = "application/x-ndjson";
+	public static final String DEFAULT_FIELD = "sequenceAnalysis";
+	public static final int DEFAULT_BATCH_SIZE = 10;
+	public static final int MAX_BATCH_SIZE = 100;
+
+	// the first line is read back if it isn't a query
+	private static final int MAX_FIRST_LINE_CHARS = 1 << 20;
+
+	private final Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor;
+	private final BatchedDataFetchers batchedFetchers;
+	private final SequenceResultCache resultCache;
+	private final String query;
+	private final Map<String, Object> variables;
+	private final String field;
+	private final int batchSize;
+	private final Iterator<Map<String, String>> sequences;
+	private final boolean gzip;
+	private final LongSupplier bytesRead;
+	private long bytesReported = 0;
+
+	static class QueryLine {
+		public String query;
+		public Map<String, Object> variables;
+		public Map<String, Object> extensions;
+		// body lines holding the query, i.e. 1 if read from the first line
+		transient int numLines = 0;
+	}
+
+	SequenceAnalysisStream(
+		Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor,
+		BatchedDataFetchers batchedFetchers, SequenceResultCache resultCache,
+		String query, Map<String, Object> variables, String field,
+		int batchSize, Iterator<Map<String, String>> sequences, boolean gzip,
+		LongSupplier bytesRead
+	) {
+		this.executor = executor;
+		this.batchedFetchers = batchedFetchers;
+		this.resultCache = resultCache;
+		this.query = query;
+		this.variables = variables == null ? Collections.emptyMap() : variables;
+		this.field = field;
+		this.batchSize = batchSize;
+		this.sequences = sequences;
+		this.gzip = gzip;
+		this.bytesRead = bytesRead;
+	}
+
+	public static Response respond(
+		Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor,
+		BatchedDataFetchers batchedFetchers,
+		GraphQLDocumentCache documentCache, SequenceResultCache resultCache,
+		String query, String sha256Hash, String field, int batchSize,
+		MediaType contentType, String acceptEncoding, InputStream body
+	) {
+		CountingInputStream countedBody = new CountingInputStream(body);
+		BufferedReader reader = new BufferedReader(
+			new InputStreamReader(countedBody, StandardCharsets.UTF_8));
+		QueryLine queryLine;
+		try {
+			queryLine = resolveQuery(documentCache, query, sha256Hash, reader);
+		} catch (PersistedQueryException e) {
+			return GraphQLErrorHandler.errorResponse(e);
+		} catch (InvalidInputException e) {
+			return badRequest(e.getMessage());
+		}
+		if (queryLine.query.isEmpty()) {
+			return badRequest(
+				"Query parameter \"query\" or \"sha256Hash\", or a " +
+				"{\"query\": ...} first line is required.");
+		}
+		if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+			return badRequest(String.format(
+				"Query parameter \"batchSize\" must be between 1 and %d.",
+				MAX_BATCH_SIZE));
+		}
+		if (field == null || field.isEmpty()) {
+			field = DEFAULT_FIELD;
+		}
+		Iterator<Map<String, String>> sequences;
+		if (contentType != null && contentType.getSubtype().endsWith("json")) {
+			sequences = new NDJSONIterator(reader, queryLine.numLines);
+		}
+		else {
+			sequences = new FastaIterator(reader);
+		}
+		boolean gzip = GraphQLResponseWriter.acceptsGzip(acceptEncoding);
+		return GraphQLResponseWriter.withEncoding(
+			Response
+			.ok(new SequenceAnalysisStream(
+				executor, batchedFetchers, resultCache,
+				queryLine.query, queryLine.variables, field,
+				batchSize, sequences, gzip, countedBody::getCount))
+			.type(NDJSON),
+			gzip
+		).build();
+	}
+
+	/**
+	 * Resolves the query given by the parameters, or else by the first line
+	 * of the body. The first line is consumed only if it holds the query.
+	 *
+	 * @return the query with its text resolved, which is an empty string
+	 *         if none was given
+	 */
+	static QueryLine resolveQuery(
+		GraphQLDocumentCache documentCache, String query, String sha256Hash,
+		BufferedReader reader
+	) {
+		QueryLine queryLine = null;
+		if (query == null || query.isEmpty()) {
+			queryLine = readQueryLine(reader);
+		}
+		if (queryLine == null) {
+			queryLine = new QueryLine();
+			queryLine.query = query;
+		}
+		else {
+			queryLine.numLines = 1;
+		}
+		if (sha256Hash == null || sha256Hash.isEmpty()) {
+			queryLine.query = documentCache.resolveQuery(queryLine.query, queryLine.extensions);
+		}
+		else {
+			queryLine.query = documentCache.resolveQuery(queryLine.query, sha256Hash);
+		}
+		return queryLine;
+	}
+
+	private static QueryLine readQueryLine(BufferedReader reader) {
+		try {
+			reader.mark(MAX_FIRST_LINE_CHARS);
+			String line = reader.readLine();
+			QueryLine queryLine = null;
+			if (line != null && line.trim().startsWith("{")) {
+				try {
+					JsonObject object = JsonParser.parseString(line).getAsJsonObject();
+					if (
+						!object.has("sequence") &&
+						(object.has("query") || object.has("extensions"))
+					) {
+						queryLine = GraphQLResponseWriter.gson.fromJson(object, QueryLine.class);
+					}
+				} catch (JsonParseException | IllegalStateException e) {
+					// not a query; the sequence reader reports malformed lines
+				}
+			}
+			if (queryLine == null) {
+				try {
+					reader.reset();
+				} catch (IOException e) {
+					throw new InvalidInputException(String.format(
+						"The first line is longer than %d characters.", MAX_FIRST_LINE_CHARS));
+				}
+			}
+			// release the mark, otherwise the reader keeps up to
+			// MAX_FIRST_LINE_CHARS characters buffered while reading on
+			reader.mark(1);
+			return queryLine;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static Response badRequest(String message) {
+		return GraphQLErrorHandler.errorResponse(Status.BAD_REQUEST, message, null);
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		OutputStream encoded = GraphQLResponseWriter.encode(output, gzip);
+		Writer writer = new BufferedWriter(
+			new OutputStreamWriter(encoded, StandardCharsets.UTF_8));
+		List<Map<String, String>> batch = new ArrayList<>(batchSize);
+		try {
+			while (sequences.hasNext()) {
+				batch.add(sequences.next());
+				if (batch.size() == batchSize || !sequences.hasNext()) {
+					writeBatch(batch, writer);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		catch (InvalidInputException e) {
+			// sequences read before the malformed line are still analyzed
+			if (!batch.isEmpty()) {
+				writeBatch(batch, writer);
+			}
+			writeErrors(writer, GraphQLErrorHandler.singleError(e.getMessage()));
+		}
+		catch (AdmissionRejectedException e) {
+			// the remaining sequences are left unanalyzed
+			writeErrors(writer, GraphQLErrorHandler.singleError(e.getMessage(), e.getCode()));
+		}
+		writer.flush();
+		if (encoded instanceof GZIPOutputStream) {
+			((GZIPOutputStream) encoded).finish();
+		}
+	}
+
+	private void writeBatch(List<Map<String, String>> batch, Writer writer) throws IOException {
+		Map<String, Object> variables = new LinkedHashMap<>(this.variables);
+		variables.put("sequences", batch);
+		// the upload bytes read for this batch
+		long bytes = bytesRead.getAsLong();
+		GraphQLContext context = (
+			GraphQLContext.newContext()
+			.of(MetricsInstrumentation.REQUEST_BYTES, bytes - bytesReported)
+			.build()
+		);
+		bytesReported = bytes;
+		ExecutionInput input = (
+			ExecutionInput
+			.newExecutionInput()
+			.query(query).context(context).variables(variables)
+			.dataLoaderRegistry(batchedFetchers.newDataLoaderRegistry())
+			.build()
+		);
+		ExecutionResult result;
+		try {
+			result = resultCache.execute(input, executor).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof AdmissionRejectedException) {
+				throw (AdmissionRejectedException) e.getCause();
+			}
+			throw e;
+		}
+		List<Map<String, Object>> errors = GraphQLErrorHandler.handleErrors(result);
+		if (!errors.isEmpty()) {
+			writeErrors(writer, errors);
+		}
+		Map<String, Object> data = result.getData();
+		Object items = data == null ? null : data.get(field);
+		if (items instanceof List) {
+			for (Object item : (List<?>) items) {
+				writeLine(writer, item);
+			}
+		}
+		// make each finished batch visible to the client immediately
+		writer.flush();
+	}
+
+	private static void writeErrors(Writer writer, List<Map<String, Object>> errors) throws IOException {
+		Map<String, Object> line = new LinkedHashMap<>();
+		line.put("errors", errors);
+		// errors carry exception details which Json knows how to serialize;
+		// re-read them so the line is written compactly
+		writeLine(writer, JsonParser.parseString(Json.dumps(line)));
+	}
+
+	private static void writeLine(Writer writer, Object item) throws IOException {
+		// Json.dumps is not guaranteed to write a document on a single line
+		GraphQLResponseWriter.gson.toJson(item, writer);
+		writer.write('\n');
+	}
+
+	private static Map<String, String> newSequence(String header, String sequence) {
+		Map<String, String> seqMap = new LinkedHashMap<>();
+		seqMap.put("header", header);
+		seqMap.put("sequence", sequence);
+		return seqMap;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count = 0;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count ++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+	}
+
+	static class InvalidInputException extends IllegalArgumentException {
+
+		private static final long serialVersionUID = 1L;
+
+		public InvalidInputException(String message) {
+			super(message);
+		}
+
+	}
+
+	/**
+	 * Lazily reads FASTA records, one record at a time.
+	 */
+	static class FastaIterator implements Iterator<Map<String, String>> {
+
+		private final BufferedReader reader;
+		private String nextHeader;
+		private Map<String, String> next;
+
+		public FastaIterator(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			try {
+				StringBuilder sequence = new StringBuilder();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.startsWith(">")) {
+						String header = nextHeader;
+						nextHeader = line.substring(1).trim();
+						if (header != null) {
+							next = newSequence(header, sequence.toString());
+							return true;
+						}
+					}
+					else if (nextHeader != null) {
+						sequence.append(line.replaceAll("\\s", ""));
+					}
+				}
+				if (nextHeader != null) {
+					next = newSequence(nextHeader, sequence.toString());
+					nextHeader = null;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return next != null;
+		}
+
+		@Override
+		public Map<String, String> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Map<String, String> result = next;
+			next = null;
+			return result;
+		}
+
+	}
+
+	/**
+	 * Lazily reads one <code>{"header": ..., "sequence": ...}</code>
+	 * object per line.
+	 */
+	static class NDJSONIterator implements Iterator<Map<String, String>> {
+
+		private final BufferedReader reader;
+		private Map<String, String> next;
+		private int lineNumber;
+
+		public NDJSONIterator(BufferedReader reader) {
+			this(reader, 0);
+		}
+
+		/**
+		 * @param reader reader of the body
+		 * @param linesRead lines of the body already read from the reader
+		 */
+		public NDJSONIterator(BufferedReader reader, int linesRead) {
+			this.reader = reader;
+			this.lineNumber = linesRead;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					lineNumber ++;
+					if (line.isBlank()) {
+						continue;
+					}
+					Map<String, String> seqMap;
+					try {
+						seqMap = GraphQLResponseWriter.gson.fromJson(
+							line, new TypeToken<Map<String, String>>(){}.getType());
+					} catch (JsonParseException e) {
+						throw new InvalidInputException(
+							String.format("Invalid JSON at line %d: %s", lineNumber, e.getMessage()));
+					}
+					if (seqMap == null || seqMap.get("sequence") == null) {
+						throw new InvalidInputException(
+							String.format("Missing \"sequence\" at line %d.", lineNumber));
+					}
+					String header = seqMap.get("header");
+					next = newSequence(header == null ? "" : header, seqMap.get("sequence"));
+					return true;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return false;
+		}
+
+		@Override
+		public Map<String, String> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Map<String, String> result = next;
+			next = null;
+			return result;
+		}
+
+	}
+
+}
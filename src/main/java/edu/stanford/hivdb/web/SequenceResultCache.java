@@ -0,0 +1,508 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import edu.stanford.hivdb.drugresistance.algorithm.DrugResistanceAlgorithm;
+import edu.stanford.hivdb.graphql.SierraSchema;
+import edu.stanford.hivdb.sequences.AlignedSequence;
+import edu.stanford.hivdb.viruses.Virus;
+import graphql.ExceptionWhileDataFetching;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.ExecutionPath;
+import graphql.language.Argument;
+import graphql.language.Definition;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.OperationDefinition;
+import graphql.language.SourceLocation;
+import graphql.language.Selection;
+import graphql.language.VariableReference;
+import graphql.parser.Parser;
+
+/**
+ * Optional cache of per-sequence <code>sequenceAnalysis</code> results.
+ *
+ * A result is keyed by the SHA-256 digest of the sequence and its header,
+ * the query text (i.e. the requested fields), the other variables and the
+ * data version of the virus. The data version is made of the Sierra
+ * version, the drug resistance algorithms, the aligner version and a
+ * digest of the hivfacts, sierra-core and sierra-graphql packages,
+ * therefore every entry becomes unreachable once any of them changes.
+ *
+ * Only queries whose sole top-level field is
+ * <code>sequenceAnalysis(sequences: $sequences)</code> are cached. The
+ * sequences found in the cache are answered right away; the remaining ones
+ * are executed as usual and stored afterwards, except for those the
+ * errors of the execution refer to. Error paths are moved to the index of
+ * their sequence in the full list.
+ *
+ * Results are held as compact JSON in a heap tier bounded by
+ * <code>SIERRA_RESULT_CACHE_MB</code> (default 0, i.e. the cache is
+ * disabled) and, if <code>SIERRA_RESULT_CACHE_DIR</code> is set, in files
+ * under that directory. The disk tier needs <code>POSTALIGN_VERSION</code>
+ * to be set. The disk tier is not bounded; entries of previous
+ * data versions can be removed at any time.
+ */
+class SequenceResultCache {
+
+	private static final Logger LOGGER = LogManager.getLogger(SequenceResultCache.class);
+
+	private static final String SEQUENCES = "sequences";
+	private static final String FIELD = "sequenceAnalysis";
+
+	private static final Map<String, String> queryFields = GraphQLDocumentCache.newLRUMap(256);
+
+	private final String virusName;
+	private final String dataVersion;
+	private final long maxChars;
+	private final Path directory;
+	private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalChars = 0;
+
+	public <T extends Virus<T>> SequenceResultCache(T virus) {
+		this(
+			virus,
+			Settings.getInt("SIERRA_RESULT_CACHE_MB", 0),
+			Settings.getString("SIERRA_RESULT_CACHE_DIR", null));
+	}
+
+	public <T extends Virus<T>> SequenceResultCache(T virus, int maxMegabytes, String directory) {
+		this(
+			virus.getName(), maxMegabytes > 0 ? getDataVersion(virus) : null,
+			maxMegabytes, checkDirectory(directory));
+	}
+
+	/**
+	 * @param virusName virus name used as metrics label
+	 * @param dataVersion data version the entries depend on; the cache is
+	 *        disabled if null
+	 * @param maxMegabytes heap the entries may use
+	 * @param directory directory of the disk tier, can be null
+	 */
+	SequenceResultCache(String virusName, String dataVersion, int maxMegabytes, String directory) {
+		this.virusName = virusName;
+		this.dataVersion = dataVersion;
+		// a char takes two bytes on heap
+		this.maxChars = dataVersion == null ? 0 : maxMegabytes * 1024L * 1024L / 2;
+		this.directory = directory == null ? null : Paths.get(directory);
+	}
+
+	public boolean isEnabled() {
+		return maxChars > 0;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, String text) {
+		digest.update(text.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static void updateFile(MessageDigest digest, Path path) throws IOException {
+		try (InputStream stream = new DigestInputStream(Files.newInputStream(path), digest)) {
+			stream.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	/**
+	 * Digests the jar or class directory a class was loaded from.
+	 */
+	private static void updateCodeSource(MessageDigest digest, Class<?> cls) throws Exception {
+		Path source = Paths.get(cls.getProtectionDomain().getCodeSource().getLocation().toURI());
+		if (Files.isDirectory(source)) {
+			List<Path> files;
+			try (Stream<Path> walk = Files.walk(source)) {
+				files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+			for (Path file : files) {
+				update(digest, source.relativize(file).toString());
+				updateFile(digest, file);
+			}
+		}
+		else {
+			updateFile(digest, source);
+		}
+	}
+
+	/**
+	 * Returns the versions of PostAlign and minimap2, which the base image
+	 * exports as <code>POSTALIGN_VERSION</code> and
+	 * <code>MINIMAP2_VERSION</code>, or null if PostAlign's is unknown.
+	 */
+	static String getAlignerVersion() {
+		String postalign = Settings.getString("POSTALIGN_VERSION", null);
+		if (postalign == null) {
+			return null;
+		}
+		return postalign + "/" + Settings.getString("MINIMAP2_VERSION", "");
+	}
+
+	/**
+	 * The disk tier outlives aligner upgrades, therefore it is only used if
+	 * the aligner version is known.
+	 */
+	private static String checkDirectory(String directory) {
+		if (directory != null && getAlignerVersion() == null) {
+			LOGGER.warn(
+				"POSTALIGN_VERSION is not set; SIERRA_RESULT_CACHE_DIR {} is ignored", directory);
+			return null;
+		}
+		return directory;
+	}
+
+	/**
+	 * Digests everything the results of a virus depend on besides the
+	 * request: the Sierra version, the algorithms, the aligner version and
+	 * the packages (jars or class directories) of hivfacts, sierra-core and
+	 * sierra-graphql. Returns null if any of them can't be read.
+	 */
+	private static <T extends Virus<T>> String getDataVersion(T virus) {
+		MessageDigest digest = newDigest();
+		update(digest, virus.getName());
+		for (DrugResistanceAlgorithm<T> algorithm : virus.getDrugResistAlgorithms()) {
+			update(digest, algorithm.getName());
+		}
+		String alignerVersion = getAlignerVersion();
+		update(digest, alignerVersion == null ? "" : alignerVersion);
+		try (InputStream stream = SequenceResultCache.class.getResourceAsStream("/version.properties")) {
+			if (stream != null) {
+				update(digest, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+			}
+			updateCodeSource(digest, virus.getClass());
+			updateCodeSource(digest, AlignedSequence.class);
+			updateCodeSource(digest, SierraSchema.class);
+		} catch (Exception e) {
+			// without knowing the data, entries would survive a data update
+			LOGGER.warn(
+				"Unable to determine the data version of {}; result cache disabled",
+				virus.getName(), e);
+			return null;
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Returns the response key of the <code>sequenceAnalysis</code> field if
+	 * the query only asks for <code>sequenceAnalysis(sequences: $sequences)</code>,
+	 * i.e. its result is a list of independent per-sequence results, otherwise
+	 * an empty string.
+	 *
+	 * @param query GraphQL query
+	 * @return response key or an empty string
+	 */
+	static String getCacheableField(String query) {
+		return queryFields.computeIfAbsent(GraphQLDocumentCache.sha256Hex(query), k -> {
+			try {
+				return findCacheableField(new Parser().parseDocument(query));
+			} catch (RuntimeException e) {
+				// leave syntax errors to the execution
+				return "";
+			}
+		});
+	}
+
+	private static String findCacheableField(Document document) {
+		List<Definition> definitions = document.getDefinitions();
+		List<OperationDefinition> operations = definitions.stream()
+			.filter(def -> def instanceof OperationDefinition)
+			.map(def -> (OperationDefinition) def)
+			.collect(Collectors.toList());
+		if (operations.size() != 1) {
+			return "";
+		}
+		OperationDefinition operation = operations.get(0);
+		List<Selection> selections = operation.getSelectionSet().getSelections();
+		if (
+			operation.getOperation() != OperationDefinition.Operation.QUERY ||
+			selections.size() != 1 ||
+			!(selections.get(0) instanceof Field)
+		) {
+			return "";
+		}
+		Field field = (Field) selections.get(0);
+		if (!field.getName().equals(FIELD) || !field.getDirectives().isEmpty()) {
+			return "";
+		}
+		List<Argument> arguments = field.getArguments();
+		if (
+			arguments.size() != 1 ||
+			!arguments.get(0).getName().equals(SEQUENCES) ||
+			!(arguments.get(0).getValue() instanceof VariableReference) ||
+			!((VariableReference) arguments.get(0).getValue()).getName().equals(SEQUENCES)
+		) {
+			return "";
+		}
+		return field.getAlias() == null ? field.getName() : field.getAlias();
+	}
+
+	private String getKey(String queryHash, String otherVariables, Object sequence) {
+		MessageDigest digest = newDigest();
+		update(digest, dataVersion);
+		update(digest, queryHash);
+		update(digest, otherVariables);
+		update(digest, GraphQLResponseWriter.gson.toJson(new TreeMap<>((Map<?, ?>) sequence)));
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private Path getPath(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key + ".json");
+	}
+
+	private String get(String key) {
+		synchronized (entries) {
+			String value = entries.get(key);
+			if (value != null || directory == null) {
+				return value;
+			}
+		}
+		Path path = getPath(key);
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		try {
+			String value = Files.readString(path);
+			putInHeap(key, value);
+			return value;
+		} catch (IOException e) {
+			LOGGER.warn("Unable to read cached result {}", path, e);
+			return null;
+		}
+	}
+
+	private void putInHeap(String key, String value) {
+		synchronized (entries) {
+			String old = entries.put(key, value);
+			totalChars += value.length() - (old == null ? 0 : old.length());
+			Iterator<String> eldest = entries.values().iterator();
+			while (totalChars > maxChars && eldest.hasNext()) {
+				totalChars -= eldest.next().length();
+				eldest.remove();
+			}
+		}
+	}
+
+	private void put(String key, String value) {
+		putInHeap(key, value);
+		if (directory == null) {
+			return;
+		}
+		Path path = getPath(key);
+		try {
+			Files.createDirectories(path.getParent());
+			Path temp = Files.createTempFile(path.getParent(), key, ".tmp");
+			Files.writeString(temp, value);
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to write cached result {}", path, e);
+		}
+	}
+
+	/**
+	 * Returns the index of the sequence an error refers to, or null if its
+	 * path doesn't point into the list of sequence results.
+	 */
+	private static Integer getSequenceIndex(GraphQLError error, String field, int numSequences) {
+		List<Object> path = error.getPath();
+		if (
+			path == null || path.size() < 2 ||
+			!field.equals(path.get(0)) ||
+			!(path.get(1) instanceof Integer) ||
+			(Integer) path.get(1) >= numSequences
+		) {
+			return null;
+		}
+		return (Integer) path.get(1);
+	}
+
+	/**
+	 * Moves an error of the executed sequences to the index of its
+	 * sequence in the full list.
+	 */
+	private static GraphQLError remapError(GraphQLError error, int index) {
+		List<Object> path = new ArrayList<>(error.getPath());
+		path.set(1, index);
+		if (error instanceof ExceptionWhileDataFetching) {
+			// its message names the path, and its exception is reported
+			List<SourceLocation> locations = error.getLocations();
+			return new ExceptionWhileDataFetching(
+				ExecutionPath.fromList(path),
+				((ExceptionWhileDataFetching) error).getException(),
+				locations == null || locations.isEmpty() ? null : locations.get(0));
+		}
+		return (
+			GraphqlErrorBuilder.newError()
+			.message(error.getMessage())
+			.locations(error.getLocations())
+			.errorType(error.getErrorType())
+			.path(path)
+			.extensions(error.getExtensions())
+			.build()
+		);
+	}
+
+	/**
+	 * Executes the query, answering the sequences found in the cache without
+	 * executing them.
+	 *
+	 * @param input execution input
+	 * @param executor executes the input of the remaining sequences
+	 * @return the future of the execution result
+	 */
+	public CompletableFuture<ExecutionResult> execute(
+		ExecutionInput input,
+		Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor
+	) {
+		if (!isEnabled()) {
+			return executor.apply(input);
+		}
+		Object sequences = input.getVariables().get(SEQUENCES);
+		String field = getCacheableField(input.getQuery());
+		if (field.isEmpty() || !(sequences instanceof List)) {
+			return executor.apply(input);
+		}
+		for (Object sequence : (List<?>) sequences) {
+			if (!(sequence instanceof Map)) {
+				return executor.apply(input);
+			}
+		}
+		Map<String, Object> otherVariables = new TreeMap<>(input.getVariables());
+		otherVariables.remove(SEQUENCES);
+		String queryHash = GraphQLDocumentCache.sha256Hex(input.getQuery());
+		String otherVariablesJson = GraphQLResponseWriter.gson.toJson(otherVariables);
+
+		List<String> keys = new ArrayList<>();
+		List<JsonElement> results = new ArrayList<>();
+		List<Object> misses = new ArrayList<>();
+		for (Object sequence : (List<?>) sequences) {
+			String key = getKey(queryHash, otherVariablesJson, sequence);
+			String cached = get(key);
+			keys.add(key);
+			results.add(cached == null ? null : JsonParser.parseString(cached));
+			if (cached == null) {
+				misses.add(sequence);
+			}
+		}
+		int numHits = keys.size() - misses.size();
+		GraphQLMetrics.getInstance().recordResultCache(virusName, numHits, misses.size());
+		if (misses.isEmpty()) {
+			Map<String, Object> data = new LinkedHashMap<>();
+			data.put(field, results);
+			return CompletableFuture.completedFuture(
+				new ExecutionResultImpl(data, Collections.emptyList()));
+		}
+		ExecutionInput missInput = input;
+		if (numHits > 0) {
+			Map<String, Object> variables = new LinkedHashMap<>(input.getVariables());
+			variables.put(SEQUENCES, misses);
+			missInput = input.transform(builder -> builder.variables(variables));
+		}
+		return executor.apply(missInput).thenApply(result -> {
+			Map<String, Object> data = result.getData();
+			Object items = data == null ? null : data.get(field);
+			if (!(items instanceof List) || ((List<?>) items).size() != misses.size()) {
+				// not a per-sequence failure, e.g. a validation error
+				return result;
+			}
+			List<Integer> missIndices = new ArrayList<>(misses.size());
+			for (int i = 0; i < keys.size(); i ++) {
+				if (results.get(i) == null) {
+					missIndices.add(i);
+				}
+			}
+			Set<Integer> failed = new HashSet<>();
+			boolean cacheable = true;
+			List<GraphQLError> errors = new ArrayList<>();
+			for (GraphQLError error : result.getErrors()) {
+				Integer missIndex = getSequenceIndex(error, field, misses.size());
+				if (missIndex == null) {
+					// can't tell which sequences the error is about
+					cacheable = false;
+					errors.add(error);
+					continue;
+				}
+				failed.add(missIndex);
+				errors.add(numHits == 0 ? error : remapError(error, missIndices.get(missIndex)));
+			}
+			Iterator<?> missResults = ((List<?>) items).iterator();
+			List<Object> merged = new ArrayList<>();
+			int missIndex = 0;
+			for (int i = 0; i < keys.size(); i ++) {
+				if (results.get(i) != null) {
+					merged.add(results.get(i));
+					continue;
+				}
+				Object item = missResults.next();
+				if (cacheable && !failed.contains(missIndex)) {
+					put(keys.get(i), GraphQLResponseWriter.gson.toJson(item));
+				}
+				merged.add(item);
+				missIndex ++;
+			}
+			if (numHits == 0) {
+				return result;
+			}
+			Map<String, Object> mergedData = new LinkedHashMap<>();
+			mergedData.put(field, merged);
+			return new ExecutionResultImpl(mergedData, errors);
+		});
+	}
+
+}
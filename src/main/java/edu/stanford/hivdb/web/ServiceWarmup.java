@@ -0,0 +1,205 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.hivdb.drugresistance.algorithm.DrugResistanceAlgorithm;
+import edu.stanford.hivdb.sequences.Sequence;
+import edu.stanford.hivdb.utilities.FastaUtils;
+import edu.stanford.hivdb.viruses.Gene;
+import edu.stanford.hivdb.viruses.Strain;
+import edu.stanford.hivdb.viruses.Virus;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+
+/**
+ * Warms up the GraphQL services in the background after the application
+ * started, and tells {@link ReadinessService} when this is done.
+ *
+ * For each virus, every drug resistance algorithm is compiled for every
+ * gene, and one canned sequence per strain (<code>warmup/STRAIN.fasta</code>)
+ * is analyzed. The analysis loads the remaining lazily loaded resources
+ * (genotype references, amino acid and codon percents, conditional
+ * comments) and exercises the aligner, so the first real request does not
+ * pay for them.
+ */
+class ServiceWarmup {
+
+	private static final Logger LOGGER = LogManager.getLogger(ServiceWarmup.class);
+
+	private static final ServiceWarmup singleton = new ServiceWarmup();
+
+	private static final String QUERY = (
+		"query ($sequences: [UnalignedSequenceInput]) {\n" +
+		"  sequenceAnalysis(sequences: $sequences) {\n" +
+		"    inputSequence { header }\n" +
+		"    validationResults { level message }\n" +
+		"    alignedGeneSequences { gene { name } }\n" +
+		"    mutations { text isUnusual comments { text } }\n" +
+		"    subtypeText\n" +
+		"    drugResistance { gene { name } drugScores { drug { name } score text } }\n" +
+		"  }\n" +
+		"}"
+	);
+
+	// each warm-up step gets a thread of its own
+	private static final Executor threadPerStep = task -> {
+		Thread thread = new Thread(task, "sierra-warmup");
+		thread.setDaemon(true);
+		thread.start();
+	};
+
+	private volatile CompletableFuture<Void> warmup;
+	private volatile Throwable failure;
+
+	public static ServiceWarmup getInstance() {
+		return singleton;
+	}
+
+	private ServiceWarmup() {}
+
+	/**
+	 * Creates the given objects in parallel.
+	 *
+	 * @param suppliers constructors of the objects
+	 * @return the created objects in the same order
+	 */
+	public static List<Object> createAll(List<Supplier<?>> suppliers) {
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		for (Supplier<?> supplier : suppliers) {
+			futures.add(CompletableFuture.supplyAsync(supplier, threadPerStep));
+		}
+		List<Object> results = new ArrayList<>();
+		for (CompletableFuture<?> future : futures) {
+			results.add(future.join());
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the given warm-up steps in parallel in the background.
+	 *
+	 * @param steps warm-up steps
+	 */
+	public synchronized void start(List<Runnable> steps) {
+		if (warmup != null) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (Runnable step : steps) {
+			futures.add(CompletableFuture.runAsync(step, threadPerStep));
+		}
+		warmup = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+		warmup.whenComplete((result, error) -> {
+			if (error == null) {
+				LOGGER.info("Warm-up finished in {}ms", (System.nanoTime() - start) / 1_000_000);
+			}
+			else {
+				failure = error.getCause() == null ? error : error.getCause();
+				LOGGER.error("Warm-up failed", failure);
+			}
+		});
+	}
+
+	public boolean isReady() {
+		CompletableFuture<Void> warmup = this.warmup;
+		return warmup != null && warmup.isDone() && !warmup.isCompletedExceptionally();
+	}
+
+	public String getStatus() {
+		if (isReady()) {
+			return "ready";
+		}
+		if (failure != null) {
+			return "warm-up failed: " + failure;
+		}
+		return "warming up";
+	}
+
+	/**
+	 * Warms up the resources of the virus and the GraphQL instance serving it.
+	 *
+	 * @param virus virus instance
+	 * @param graphql GraphQL instance
+	 * @param batchedFetchers batched data fetchers of the GraphQL schema
+	 */
+	public static <T extends Virus<T>> void warmUp(
+		T virus, GraphQL graphql, BatchedDataFetchers batchedFetchers
+	) {
+		long start = System.nanoTime();
+		for (DrugResistanceAlgorithm<T> algorithm : virus.getDrugResistAlgorithms()) {
+			for (Strain<T> strain : virus.getStrains()) {
+				for (Gene<T> gene : virus.getGenes(strain)) {
+					algorithm.getASIGene(gene);
+				}
+			}
+		}
+		for (Strain<T> strain : virus.getStrains()) {
+			String resource = "/warmup/" + strain.getName() + ".fasta";
+			List<Map<String, String>> sequences = new ArrayList<>();
+			try (InputStream stream = ServiceWarmup.class.getResourceAsStream(resource)) {
+				if (stream == null) {
+					LOGGER.warn("No warm-up sequence found for strain {}", strain.getName());
+					continue;
+				}
+				for (Sequence seq : FastaUtils.readStream(stream)) {
+					Map<String, String> seqMap = new LinkedHashMap<>();
+					seqMap.put("header", seq.getHeader());
+					seqMap.put("sequence", seq.getSequence());
+					sequences.add(seqMap);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			Map<String, Object> variables = new LinkedHashMap<>();
+			variables.put("sequences", sequences);
+			ExecutionResult result = graphql.execute(
+				ExecutionInput
+				.newExecutionInput()
+				.query(QUERY).variables(variables)
+				.dataLoaderRegistry(batchedFetchers.newDataLoaderRegistry())
+				.build()
+			);
+			if (!result.getErrors().isEmpty()) {
+				// the resources were loaded nonetheless; don't hold back readiness
+				LOGGER.warn(
+					"Warm-up query for strain {} returned errors: {}",
+					strain.getName(), result.getErrors());
+			}
+		}
+		LOGGER.info(
+			"Warmed up {} in {}ms", virus.getName(), (System.nanoTime() - start) / 1_000_000);
+	}
+
+}
@@ -18,8 +18,11 @@
 
 package edu.stanford.hivdb.web;
 
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import jakarta.ws.rs.ApplicationPath;
 import jakarta.ws.rs.core.Application;
@@ -32,9 +35,18 @@ public class WebApplication extends Application {
 	private Set<Class<?>> classes = new HashSet<>();
 
 	public WebApplication() {
+		// each service loads its virus and builds its schema; do both in parallel
+		List<Object> services = ServiceWarmup.createAll(Arrays.<Supplier<?>>asList(
+			GraphQLService::new, HIV2GraphQLService::new));
+		GraphQLService hiv1Service = (GraphQLService) services.get(0);
+		HIV2GraphQLService hiv2Service = (HIV2GraphQLService) services.get(1);
 		singletons.add(new HivdbVersionService());
-		singletons.add(new GraphQLService());
-		singletons.add(new HIV2GraphQLService());
+		singletons.add(hiv1Service);
+		singletons.add(hiv2Service);
+		singletons.add(new MetricsService());
+		singletons.add(new ReadinessService());
+		ServiceWarmup.getInstance().start(Arrays.asList(
+			hiv1Service::warmUp, hiv2Service::warmUp));
 		classes.add(CorsFilter.class);
 	}
 
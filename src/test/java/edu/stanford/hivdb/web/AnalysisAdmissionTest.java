@@ -0,0 +1,59 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import graphql.parser.Parser;
+import graphql.schema.GraphQLSchema;
+
+public class AnalysisAdmissionTest {
+
+	private static final GraphQLSchema schema = ToySchema.newSchema();
+
+	private static int count(String query, Map<String, Object> variables) {
+		return AnalysisAdmission.countSequences(
+			schema, new Parser().parseDocument(query), null, variables);
+	}
+
+	@Test
+	public void testCountVariables() {
+		Map<String, Object> variables = new LinkedHashMap<>();
+		variables.put("sequences", ToySchema.sequences("a", "b", "c"));
+		assertEquals(3, count(ToySchema.QUERY, variables));
+		assertEquals(3, AnalysisAdmission.countSequences(variables));
+	}
+
+	@Test
+	public void testCountInlineLiterals() {
+		String query = (
+			"{\n" +
+			"  sequenceAnalysis(sequences: [\n" +
+			"    {header: \"a\", sequence: \"ACGT\"},\n" +
+			"    {header: \"b\", sequence: \"ACGT\"}\n" +
+			"  ]) { header }\n" +
+			"  again: sequenceAnalysis(sequences: [{header: \"c\", sequence: \"A\"}]) { header }\n" +
+			"}");
+		assertEquals(3, count(query, Collections.emptyMap()));
+	}
+
+	@Test
+	public void testCountWithoutSequences() {
+		assertEquals(0, count("{ hello }", Collections.emptyMap()));
+	}
+
+	@Test
+	public void testInvalidQueryFallsBackToVariables() {
+		Map<String, Object> variables = new LinkedHashMap<>();
+		variables.put("sequences", ToySchema.sequences("a", "b"));
+		assertEquals(2, count(
+			"query ($sequences: [SequenceInput]) { unknown(sequences: $sequences) }",
+			variables));
+		assertEquals(2, AnalysisAdmission.countSequences(schema, null, null, variables));
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+
+    Copyright (C) 2026 Stanford HIVDB team
+
+    Sierra is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Sierra is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import edu.stanford.hivdb.genotypes.BoundGenotype;
+import edu.stanford.hivdb.genotypes.Genotyper;
+import edu.stanford.hivdb.hivfacts.HIV;
+import edu.stanford.hivdb.web.BatchGenotyper.Query;
+import edu.stanford.hivdb.web.BatchGenotyper.Result;
+
+public class BatchGenotyperTest {
+
+	private static final Genotyper<HIV> genotyper = HIV.getInstance().getGenotyper();
+
+	private static final ForkJoinPool pool = new ForkJoinPool(2);
+
+	@AfterClass
+	public static void shutdownPool() {
+		pool.shutdown();
+	}
+
+	private static String randomSequence(long seed, int length) {
+		Random random = new Random(seed);
+		StringBuilder seq = new StringBuilder(length);
+		for (int i = 0; i < length; i ++) {
+			seq.append("ACGT".charAt(random.nextInt(4)));
+		}
+		return seq.toString();
+	}
+
+	private static Query parse(String line) {
+		String[] cols = line.split(",");
+		return new Query(
+			randomSequence(cols[0].hashCode(), 1000),
+			Integer.parseInt(cols[1]), Integer.parseInt(cols[2]));
+	}
+
+	@Test
+	public void testResultsInInputOrderAcrossBlocks() {
+		List<Query> queries = new ArrayList<>();
+		for (int i = 0; i < 5; i ++) {
+			int firstNA = 2253 + i * 30;
+			queries.add(new Query(randomSequence(i, 900), firstNA, firstNA + 899));
+		}
+		List<Result<Query, HIV>> results =
+			new BatchGenotyper<>(genotyper, pool, 2).genotype(queries);
+		assertEquals(5, results.size());
+		for (int i = 0; i < 5; i ++) {
+			Query query = queries.get(i);
+			BoundGenotype<HIV> expected = genotyper.compareAll(
+				query.getSequence(), query.getFirstNA(), query.getLastNA()).getBestMatch();
+			BoundGenotype<HIV> actual = results.get(i).getGenotypeResult().getBestMatch();
+			assertEquals(query, results.get(i).getInput());
+			assertEquals(expected.getDisplayWithoutDistance(), actual.getDisplayWithoutDistance());
+			assertEquals(expected.getDistance(), actual.getDistance(), 1e-10);
+		}
+	}
+
+	@Test
+	public void testFailedInputDoesNotAffectOthers() {
+		List<String> lines = Arrays.asList(
+			"a,2253,3252", "b,3252,2253", "c,2253,3252");
+		List<Result<String, HIV>> results = new ArrayList<>();
+		new BatchGenotyper<>(genotyper, pool, 2).genotype(
+			lines.iterator(),
+			BatchGenotyperTest::parse,
+			results::add);
+		assertEquals(3, results.size());
+		assertEquals("a,2253,3252", results.get(0).getInput());
+		assertNotNull(results.get(0).getGenotypeResult());
+		assertEquals("b,3252,2253", results.get(1).getInput());
+		assertNull(results.get(1).getGenotypeResult());
+		assertEquals("invalid range 3252-2253", results.get(1).getError().getMessage());
+		assertNotNull(results.get(2).getGenotypeResult());
+	}
+
+}
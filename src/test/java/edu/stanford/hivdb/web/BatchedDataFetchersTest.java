@@ -0,0 +1,146 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.hivfacts.HIV;
+import edu.stanford.hivdb.mutations.CodonMutation;
+import edu.stanford.hivdb.mutations.MutationSet;
+import edu.stanford.hivdb.viruses.Gene;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+
+public class BatchedDataFetchersTest {
+
+	private static final String SDL = (
+		"type Query {\n" +
+		"  sequenceAnalysis(sequences: [SequenceInput]): [SequenceAnalysis]\n" +
+		"}\n" +
+		"input SequenceInput { header: String sequence: String }\n" +
+		"type SequenceAnalysis {\n" +
+		"  header: String\n" +
+		"  drugResistance(algorithm: String): String\n" +
+		"  bestMatchingGenotype: String\n" +
+		"  mutations: String\n" +
+		"}\n"
+	);
+
+	private static final String QUERY = (
+		"query ($sequences: [SequenceInput]) {\n" +
+		"  sequenceAnalysis(sequences: $sequences) {\n" +
+		"    header\n" +
+		"    a: drugResistance(algorithm: \"X\")\n" +
+		"    b: drugResistance(algorithm: \"X\")\n" +
+		"    c: drugResistance(algorithm: \"Y\")\n" +
+		"    bestMatchingGenotype\n" +
+		"    g: bestMatchingGenotype\n" +
+		"    mutations\n" +
+		"  }\n" +
+		"}"
+	);
+
+	private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+
+	private DataFetcher<Object> counting(String field, DataFetcher<Object> dataFetcher) {
+		return env -> {
+			fetches.computeIfAbsent(field, k -> new AtomicInteger()).incrementAndGet();
+			return dataFetcher.get(env);
+		};
+	}
+
+	private GraphQLSchema newSchema() {
+		RuntimeWiring wiring = (
+			RuntimeWiring.newRuntimeWiring()
+			.type("Query", builder -> builder
+				.dataFetcher("sequenceAnalysis", env -> env.getArgument("sequences")))
+			.type("SequenceAnalysis", builder -> builder
+				.dataFetcher("drugResistance", counting("drugResistance", env -> {
+					Map<String, String> source = env.getSource();
+					return source.get("header") + ":" + env.getArgument("algorithm");
+				}))
+				.dataFetcher("bestMatchingGenotype", counting("bestMatchingGenotype", env -> {
+					Map<String, String> source = env.getSource();
+					return "B:" + source.get("sequence");
+				}))
+				.dataFetcher("mutations", counting("mutations", env -> "none")))
+			.build()
+		);
+		return new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(SDL), wiring);
+	}
+
+	private int getFetches(String field) {
+		AtomicInteger count = fetches.get(field);
+		return count == null ? 0 : count.get();
+	}
+
+	@Test
+	public void testFallbackForOtherSources() {
+		BatchedDataFetchers batchedFetchers = new BatchedDataFetchers();
+		GraphQL graphql = GraphQL.newGraphQL(batchedFetchers.transform(newSchema())).build();
+		ExecutionInput input = ToySchema.input(QUERY, "a", "b").transform(
+			builder -> builder.dataLoaderRegistry(batchedFetchers.newDataLoaderRegistry()));
+		ExecutionResult result = graphql.execute(input);
+		assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+
+		Map<String, List<Map<String, Object>>> data = result.getData();
+		List<Map<String, Object>> items = data.get("sequenceAnalysis");
+		assertEquals("a:X", items.get(0).get("a"));
+		assertEquals("a:X", items.get(0).get("b"));
+		assertEquals("a:Y", items.get(0).get("c"));
+		assertEquals("b:Y", items.get(1).get("c"));
+		assertEquals("B:ACGTa", items.get(0).get("bestMatchingGenotype"));
+		assertEquals("B:ACGTb", items.get(1).get("g"));
+		assertEquals("none", items.get(1).get("mutations"));
+
+		// sources which aren't aligned sequences go to the original data
+		// fetcher, once per source and arguments however often aliased
+		assertEquals(4, getFetches("drugResistance"));
+		assertEquals(2, getFetches("bestMatchingGenotype"));
+		// not batched while SIERRA_BATCH_PARALLELISM is 0
+		assertEquals(2, getFetches("mutations"));
+	}
+
+	@Test
+	public void testFreshRegistryPerExecution() {
+		BatchedDataFetchers batchedFetchers = new BatchedDataFetchers();
+		GraphQL graphql = GraphQL.newGraphQL(batchedFetchers.transform(newSchema())).build();
+		for (int i = 0; i < 2; i ++) {
+			graphql.execute(ToySchema.input(QUERY, "a").transform(
+				builder -> builder.dataLoaderRegistry(batchedFetchers.newDataLoaderRegistry())));
+		}
+		assertEquals(4, getFetches("drugResistance"));
+	}
+
+	@Test
+	public void testGeneDRKeyIncludesCodons() {
+		Gene<HIV> pr = HIV.getInstance().getGene("HIV1PR");
+		MutationSet<HIV> ttc = new MutationSet<HIV>(new CodonMutation<HIV>(pr, 10, "F", "TTC"));
+		MutationSet<HIV> ttt = new MutationSet<HIV>(new CodonMutation<HIV>(pr, 10, "F", "TTT"));
+		MutationSet<HIV> ttt2 = new MutationSet<HIV>(new CodonMutation<HIV>(pr, 10, "F", "TTT"));
+		// mutation sets compare amino acids only
+		assertEquals(ttc, ttt);
+		assertNotEquals(
+			BatchedDataFetchers.getGeneDRKey("HIVDB", pr, ttc),
+			BatchedDataFetchers.getGeneDRKey("HIVDB", pr, ttt));
+		assertEquals(
+			BatchedDataFetchers.getGeneDRKey("HIVDB", pr, ttt),
+			BatchedDataFetchers.getGeneDRKey("HIVDB", pr, ttt2));
+		assertEquals(
+			Arrays.asList("TTT+"),
+			BatchedDataFetchers.getGeneDRKey("HIVDB", pr, ttt).get(3));
+	}
+
+}
@@ -0,0 +1,190 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.web.GraphQLDocumentCache.PersistedQueryException;
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.language.Document;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLSchema;
+import graphql.validation.ValidationError;
+import graphql.validation.Validator;
+
+public class GraphQLDocumentCacheTest {
+
+	private static final GraphQLSchema schema = ToySchema.newSchema();
+
+	private static final String QUERY = "{ hello }";
+
+	// SHA-256 of QUERY
+	private static final String HASH = GraphQLDocumentCache.sha256Hex(QUERY);
+
+	private final AtomicInteger parses = new AtomicInteger();
+
+	private final Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidate = input -> {
+		parses.incrementAndGet();
+		Document document;
+		try {
+			document = new Parser().parseDocument(input.getQuery());
+		} catch (InvalidSyntaxException e) {
+			return new PreparsedDocumentEntry(e.toInvalidSyntaxError());
+		}
+		List<ValidationError> errors = new Validator().validateDocument(schema, document);
+		return errors.isEmpty() ? new PreparsedDocumentEntry(document) : new PreparsedDocumentEntry(errors);
+	};
+
+	private static Map<String, Object> extensions(String sha256Hash) {
+		Map<String, Object> persistedQuery = new LinkedHashMap<>();
+		persistedQuery.put("version", 1);
+		persistedQuery.put("sha256Hash", sha256Hash);
+		Map<String, Object> extensions = new LinkedHashMap<>();
+		extensions.put("persistedQuery", persistedQuery);
+		return extensions;
+	}
+
+	private static PersistedQueryException assertRejected(
+		GraphQLDocumentCache cache, String query, String sha256Hash
+	) {
+		try {
+			cache.resolveQuery(query, extensions(sha256Hash));
+		} catch (PersistedQueryException e) {
+			return e;
+		}
+		fail("PersistedQueryException expected");
+		return null;
+	}
+
+	private static ExecutionInput input(String query) {
+		return ExecutionInput.newExecutionInput().query(query).build();
+	}
+
+	@Test
+	public void testSha256Hex() {
+		assertEquals(
+			"e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+			GraphQLDocumentCache.sha256Hex(""));
+	}
+
+	@Test
+	public void testWithoutPersistedQuery() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		assertEquals(QUERY, cache.resolveQuery(QUERY, (Map<String, Object>) null));
+		assertEquals(QUERY, cache.resolveQuery(QUERY, Collections.emptyMap()));
+		assertEquals("", cache.resolveQuery(null, (Map<String, Object>) null));
+		// a plain query is not registered
+		assertRejected(cache, null, HASH);
+	}
+
+	@Test
+	public void testRegisterAndHashOnlyHit() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		assertEquals(QUERY, cache.resolveQuery(QUERY, extensions(HASH)));
+		assertEquals(QUERY, cache.resolveQuery(null, extensions(HASH)));
+		assertEquals(QUERY, cache.resolveQuery("", extensions(HASH)));
+	}
+
+	@Test
+	public void testUppercaseHash() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		assertEquals(QUERY, cache.resolveQuery(QUERY, extensions(HASH.toUpperCase())));
+		assertEquals(QUERY, cache.resolveQuery(null, extensions(HASH)));
+		assertEquals(QUERY, cache.resolveQuery(null, extensions(HASH.toUpperCase())));
+	}
+
+	@Test
+	public void testNotFound() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		PersistedQueryException e = assertRejected(cache, null, HASH);
+		assertEquals(GraphQLDocumentCache.PERSISTED_QUERY_NOT_FOUND, e.getCode());
+		// Apollo clients only retry with the full query on a 200 response
+		assertEquals(Status.OK, e.getStatus());
+		Response response = GraphQLErrorHandler.errorResponse(e);
+		assertEquals(200, response.getStatus());
+		assertTrue(
+			response.getEntity().toString(),
+			response.getEntity().toString().contains("\"PERSISTED_QUERY_NOT_FOUND\""));
+	}
+
+	@Test
+	public void testHashMismatch() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		String otherHash = GraphQLDocumentCache.sha256Hex("{ other }");
+		PersistedQueryException e = assertRejected(cache, QUERY, otherHash);
+		assertEquals(GraphQLDocumentCache.PERSISTED_QUERY_HASH_MISMATCH, e.getCode());
+		assertEquals(Status.BAD_REQUEST, e.getStatus());
+		assertEquals(400, GraphQLErrorHandler.errorResponse(e).getStatus());
+		// neither hash was registered
+		assertRejected(cache, null, otherHash);
+		assertRejected(cache, null, HASH);
+	}
+
+	@Test
+	public void testPersistedQueriesAreBounded() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 1);
+		String other = "{ other: hello }";
+		cache.resolveQuery(QUERY, extensions(HASH));
+		cache.resolveQuery(other, extensions(GraphQLDocumentCache.sha256Hex(other)));
+		assertEquals(other, cache.resolveQuery(null, extensions(GraphQLDocumentCache.sha256Hex(other))));
+		assertRejected(cache, null, HASH);
+	}
+
+	@Test
+	public void testValidDocumentIsCached() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		PreparsedDocumentEntry first = cache.getDocument(input(QUERY), parseAndValidate);
+		PreparsedDocumentEntry second = cache.getDocument(input(QUERY), parseAndValidate);
+		assertFalse(first.hasErrors());
+		assertSame(first, second);
+		assertEquals(1, parses.get());
+		// executed documents are reused before execution
+		assertSame(first.getDocument(), cache.parse(QUERY));
+	}
+
+	@Test
+	public void testInvalidDocumentIsNotCached() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		String query = "{ unknown }";
+		assertTrue(cache.getDocument(input(query), parseAndValidate).hasErrors());
+		assertTrue(cache.getDocument(input(query), parseAndValidate).hasErrors());
+		assertEquals(2, parses.get());
+
+		// syntax errors aren't cached either
+		assertTrue(cache.getDocument(input("{ hello"), parseAndValidate).hasErrors());
+		assertTrue(cache.getDocument(input("{ hello"), parseAndValidate).hasErrors());
+		assertEquals(4, parses.get());
+	}
+
+	@Test
+	public void testParse() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(4, 4);
+		Document document = cache.parse(QUERY);
+		assertNotNull(document);
+		// not cached before it is validated
+		assertNotSame(document, cache.parse(QUERY));
+		assertNull(cache.parse("{ hello"));
+	}
+
+	@Test
+	public void testDocumentsAreBounded() {
+		GraphQLDocumentCache cache = new GraphQLDocumentCache(1, 4);
+		cache.getDocument(input(QUERY), parseAndValidate);
+		cache.getDocument(input("{ other: hello }"), parseAndValidate);
+		cache.getDocument(input(QUERY), parseAndValidate);
+		assertEquals(3, parses.get());
+	}
+
+}
@@ -0,0 +1,176 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import org.junit.Test;
+
+import com.google.gson.JsonParser;
+
+import edu.stanford.hivdb.utilities.Json;
+import edu.stanford.hivdb.web.QueryCostBudget.QueryCostExceededException;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+
+public class GraphQLResponseWriterTest {
+
+	private static Map<String, Object> newData() {
+		Map<String, Object> nested = new LinkedHashMap<>();
+		nested.put("text", "M41L <&>");
+		nested.put("empty", null);
+		Map<String, Object> item = new LinkedHashMap<>();
+		item.put("header", "a");
+		item.put("missing", null);
+		item.put("count", 3);
+		item.put("ratio", 1.5);
+		item.put("total", 12345678901L);
+		item.put("valid", true);
+		item.put("values", Arrays.asList(1, null, "x"));
+		item.put("nested", nested);
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("sequenceAnalysis", Arrays.asList(item, null));
+		return data;
+	}
+
+	private static List<GraphQLError> newErrors() {
+		Map<String, Object> extensions = new LinkedHashMap<>();
+		extensions.put("code", "SOME_CODE");
+		extensions.put("count", 2);
+		extensions.put("hint", null);
+		return Arrays.asList(
+			GraphqlErrorBuilder.newError()
+				.message("Something went wrong")
+				.path(Arrays.asList("sequenceAnalysis", 1))
+				.extensions(extensions)
+				.build(),
+			new QueryCostExceededException(9, 8));
+	}
+
+	// the response body as built before the streaming writer
+	private static String dumpBaseline(ExecutionResult result) {
+		List<Map<String, Object>> errors = GraphQLErrorHandler.handleErrors(result);
+		Map<String, Object> output = new LinkedHashMap<>();
+		if (!errors.isEmpty()) {
+			output.put("errors", errors);
+		}
+		output.put("data", result.getData());
+		return Json.dumps(output);
+	}
+
+	private static byte[] write(Response response) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		((StreamingOutput) response.getEntity()).write(output);
+		return output.toByteArray();
+	}
+
+	private static String gunzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = input.read(buffer)) != -1) {
+				output.write(buffer, 0, n);
+			}
+		}
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testAcceptsGzip() {
+		assertFalse(GraphQLResponseWriter.acceptsGzip(null));
+		assertFalse(GraphQLResponseWriter.acceptsGzip(""));
+		assertFalse(GraphQLResponseWriter.acceptsGzip("identity"));
+		assertFalse(GraphQLResponseWriter.acceptsGzip("br, deflate"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("gzip"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("GZip"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("deflate, gzip;q=1.0, br"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("gzip; q=0.5"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("x-gzip"));
+	}
+
+	@Test
+	public void testAcceptsGzipZeroQuality() {
+		assertFalse(GraphQLResponseWriter.acceptsGzip("gzip;q=0"));
+		assertFalse(GraphQLResponseWriter.acceptsGzip("gzip; q=0.000"));
+		assertFalse(GraphQLResponseWriter.acceptsGzip("x-gzip;q=0"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("gzip;q=0.01"));
+	}
+
+	@Test
+	public void testAcceptsGzipWildcard() {
+		assertTrue(GraphQLResponseWriter.acceptsGzip("*"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("br, *;q=0.1"));
+		assertFalse(GraphQLResponseWriter.acceptsGzip("*;q=0"));
+		// an explicit gzip entry takes precedence over "*"
+		assertFalse(GraphQLResponseWriter.acceptsGzip("*, gzip;q=0"));
+		assertTrue(GraphQLResponseWriter.acceptsGzip("*;q=0, gzip"));
+	}
+
+	@Test
+	public void testMatchesBaselineWithErrors() throws IOException {
+		ExecutionResult result = new ExecutionResultImpl(newData(), newErrors());
+		Response response = GraphQLResponseWriter.toResponse(result, null);
+		assertEquals(400, response.getStatus());
+		assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		String json = new String(write(response), StandardCharsets.UTF_8);
+		assertEquals(JsonParser.parseString(dumpBaseline(result)), JsonParser.parseString(json));
+
+		// nulls are kept and integers are not written as doubles
+		assertTrue(json, json.contains("\"missing\":null"));
+		assertTrue(json, json.contains("\"values\":[1,null,\"x\"]"));
+		assertTrue(json, json.contains("\"count\":3,"));
+		assertTrue(json, json.contains("\"ratio\":1.5,"));
+		assertTrue(json, json.contains("\"total\":12345678901,"));
+		assertTrue(json, json.contains("\"text\":\"M41L <&>\""));
+		assertTrue(json, json.contains("\"code\":\"QUERY_COST_EXCEEDED\""));
+		assertTrue(json, json.startsWith("{\"errors\":[{"));
+	}
+
+	@Test
+	public void testMatchesBaselineWithoutErrors() throws IOException {
+		ExecutionResult result = new ExecutionResultImpl(newData(), Collections.emptyList());
+		Response response = GraphQLResponseWriter.toResponse(result, "deflate");
+		assertEquals(200, response.getStatus());
+		String json = new String(write(response), StandardCharsets.UTF_8);
+		assertEquals(JsonParser.parseString(dumpBaseline(result)), JsonParser.parseString(json));
+		// react-relay rejects an empty "errors" key
+		assertFalse(json, json.contains("\"errors\""));
+	}
+
+	@Test
+	public void testMatchesBaselineWithoutData() throws IOException {
+		ExecutionResult result = new QueryCostExceededException(9, 8).toExecutionResult();
+		String json = new String(write(GraphQLResponseWriter.toResponse(result, null)), StandardCharsets.UTF_8);
+		assertEquals(JsonParser.parseString(dumpBaseline(result)), JsonParser.parseString(json));
+		assertTrue(json, json.endsWith("\"data\":null}"));
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		ExecutionResult result = new ExecutionResultImpl(newData(), newErrors());
+		Response response = GraphQLResponseWriter.toResponse(result, "gzip, deflate");
+		assertEquals("gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaderString(HttpHeaders.VARY));
+		assertEquals(
+			JsonParser.parseString(dumpBaseline(result)),
+			JsonParser.parseString(gunzip(write(response))));
+	}
+
+}
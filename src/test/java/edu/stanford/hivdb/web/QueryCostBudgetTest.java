@@ -0,0 +1,195 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.web.QueryCostBudget.QueryCostExceededException;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLSchema;
+
+public class QueryCostBudgetTest {
+
+	private static final GraphQLSchema schema = ToySchema.newSchema();
+
+	private static final String MUTATIONS_QUERY = (
+		"query ($sequences: [SequenceInput]) {\n" +
+		"  sequenceAnalysis(sequences: $sequences) { header mutations { text } }\n" +
+		"}"
+	);
+
+	private static final String READS_QUERY = (
+		"query ($sequenceReads: [SequenceReadsInput]) {\n" +
+		"  sequenceReadsAnalysis(sequenceReads: $sequenceReads) { header }\n" +
+		"}"
+	);
+
+	private static long cost(String query, Map<String, Object> variables) {
+		return QueryCostBudget.calcCost(
+			schema, new Parser().parseDocument(query), null, variables);
+	}
+
+	private static Map<String, Object> variables(String... headers) {
+		Map<String, Object> variables = new LinkedHashMap<>();
+		variables.put("sequences", ToySchema.sequences(headers));
+		return variables;
+	}
+
+	private static Map<String, Object> sequenceReads(String name, int numPositions) {
+		List<Map<String, Object>> allReads = new ArrayList<>();
+		for (int i = 0; i < numPositions; i ++) {
+			allReads.add(Collections.singletonMap("position", i + 1));
+		}
+		Map<String, Object> sequenceReads = new LinkedHashMap<>();
+		sequenceReads.put("name", name);
+		sequenceReads.put("allReads", allReads);
+		return sequenceReads;
+	}
+
+	private static long countRejections(String virusName) throws Exception {
+		StringWriter writer = new StringWriter();
+		GraphQLMetrics.getInstance().write(writer);
+		String prefix = "sierra_graphql_cost_rejections_total{virus=\"" + virusName + "\"} ";
+		for (String line : writer.toString().split("\n")) {
+			if (line.startsWith(prefix)) {
+				return Long.parseLong(line.substring(prefix.length()));
+			}
+		}
+		return 0;
+	}
+
+	@Test
+	public void testCostOfVariables() {
+		// sequenceAnalysis weighs 1, leaf fields weigh 0
+		assertEquals(3, cost(ToySchema.QUERY, variables("a", "b", "c")));
+		// mutations weigh 2 on top of their parent, for each sequence
+		assertEquals(9, cost(MUTATIONS_QUERY, variables("a", "b", "c")));
+	}
+
+	@Test
+	public void testCostOfInlineLists() {
+		String query = (
+			"{\n" +
+			"  sequenceAnalysis(sequences: [\n" +
+			"    {header: \"a\", sequence: \"ACGT\"},\n" +
+			"    {header: \"b\", sequence: \"ACGT\"},\n" +
+			"    {header: \"c\", sequence: \"ACGT\"}\n" +
+			"  ]) { header mutations { text } }\n" +
+			"}");
+		assertEquals(cost(MUTATIONS_QUERY, variables("a", "b", "c")), cost(query, Collections.emptyMap()));
+	}
+
+	@Test
+	public void testCostWithoutAnalysisInputs() {
+		assertEquals(0, cost("{ hello }", Collections.emptyMap()));
+		// an empty list still counts as one execution of the field
+		assertEquals(1, cost(ToySchema.QUERY, variables()));
+	}
+
+	@Test
+	public void testCostOfAllReads() {
+		Map<String, Object> variables = new LinkedHashMap<>();
+		variables.put("sequenceReads", Arrays.asList(
+			sequenceReads("a", 2500),
+			sequenceReads("b", 10),
+			sequenceReads("c", 0)));
+		// 3 units for 2500 positions, at least 1 unit for any other input
+		assertEquals(5, cost(READS_QUERY, variables));
+	}
+
+	@Test
+	public void testCostOfFragments() {
+		String named = (
+			"query ($sequences: [SequenceInput]) {\n" +
+			"  sequenceAnalysis(sequences: $sequences) { ...result }\n" +
+			"}\n" +
+			"fragment result on SequenceResult { header mutations { ...mutation } }\n" +
+			"fragment mutation on Mutation { text }");
+		String inline = (
+			"query ($sequences: [SequenceInput]) {\n" +
+			"  sequenceAnalysis(sequences: $sequences) {\n" +
+			"    ... on SequenceResult { header mutations { text } }\n" +
+			"  }\n" +
+			"}");
+		long expected = cost(MUTATIONS_QUERY, variables("a", "b"));
+		assertEquals(6, expected);
+		assertEquals(expected, cost(named, variables("a", "b")));
+		assertEquals(expected, cost(inline, variables("a", "b")));
+	}
+
+	@Test
+	public void testCostOfSelectedOperation() {
+		String query = (
+			"query Small { hello }\n" +
+			"query Large ($sequences: [SequenceInput]) {\n" +
+			"  sequenceAnalysis(sequences: $sequences) { header mutations { text } }\n" +
+			"}");
+		assertEquals(0, QueryCostBudget.calcCost(
+			schema, new Parser().parseDocument(query), "Small", variables("a", "b")));
+		assertEquals(6, QueryCostBudget.calcCost(
+			schema, new Parser().parseDocument(query), "Large", variables("a", "b")));
+	}
+
+	@Test
+	public void testEstimateCost() {
+		assertEquals(9, QueryCostBudget.estimateCost(
+			schema, new Parser().parseDocument(MUTATIONS_QUERY), null, variables("a", "b", "c")));
+		assertEquals(0, QueryCostBudget.estimateCost(
+			schema, new Parser().parseDocument("{ unknown { text } }"), null, variables("a")));
+		assertEquals(0, QueryCostBudget.estimateCost(schema, null, null, variables("a")));
+	}
+
+	@Test
+	public void testAcceptWithinBudget() throws Exception {
+		QueryCostBudget budget = new QueryCostBudget("COST_ACCEPT", 9);
+		assertNull(budget.check(
+			schema, new Parser().parseDocument(MUTATIONS_QUERY), null, variables("a", "b", "c")));
+		// invalid documents are left to the validation
+		assertNull(budget.check(
+			schema, new Parser().parseDocument("{ unknown { text } }"), null, variables("a")));
+		assertNull(budget.check(schema, null, null, variables("a")));
+		assertEquals(0, countRejections("COST_ACCEPT"));
+	}
+
+	@Test
+	public void testDisabledBudget() {
+		QueryCostBudget budget = new QueryCostBudget("COST_DISABLED", 0);
+		assertNull(budget.check(
+			schema, new Parser().parseDocument(MUTATIONS_QUERY), null, variables("a", "b", "c")));
+	}
+
+	@Test
+	public void testRejection() throws Exception {
+		QueryCostBudget budget = new QueryCostBudget("COST_REJECT", 8);
+		QueryCostExceededException rejection = budget.check(
+			schema, new Parser().parseDocument(MUTATIONS_QUERY), null, variables("a", "b", "c"));
+		assertNotNull(rejection);
+		assertEquals(9, rejection.getCost());
+		assertEquals(1, countRejections("COST_REJECT"));
+
+		ExecutionResult result = rejection.toExecutionResult();
+		assertNull(result.getData());
+		assertEquals(1, result.getErrors().size());
+		GraphQLError error = result.getErrors().get(0);
+		assertTrue(error.getMessage(), error.getMessage().startsWith(
+			"Query cost 9 exceeds the budget of 8."));
+		Map<String, Object> extensions = error.getExtensions();
+		assertEquals("QUERY_COST_EXCEEDED", extensions.get("code"));
+		assertEquals(9L, extensions.get("cost"));
+		assertEquals(8, extensions.get("maxCost"));
+		assertEquals(
+			Arrays.asList("code", "cost", "maxCost"),
+			new ArrayList<>(extensions.keySet()));
+	}
+
+}
@@ -0,0 +1,183 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.dataloader.DataLoaderRegistry;
+import org.junit.Test;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+
+public class SequenceAnalysisCoalescerTest {
+
+	private final ToySchema.RecordingExecutor recording = new ToySchema.RecordingExecutor();
+	private final List<DataLoaderRegistry> registries =
+		Collections.synchronizedList(new ArrayList<>());
+	private final Function<ExecutionInput, CompletableFuture<ExecutionResult>> executor =
+		input -> {
+			registries.add(input.getDataLoaderRegistry());
+			return recording.apply(input);
+		};
+
+	private SequenceAnalysisCoalescer newCoalescer(int windowMillis, int maxSequences) {
+		return new SequenceAnalysisCoalescer(
+			"HIV1", new BatchedDataFetchers(), executor, windowMillis, maxSequences);
+	}
+
+	// costs 10 per sequence, like a query of weight 10 per analysis input
+	private SequenceAnalysisCoalescer newCoalescer(int windowMillis, int maxSequences, int maxCost) {
+		return new SequenceAnalysisCoalescer(
+			"HIV1", new BatchedDataFetchers(), executor, windowMillis, maxSequences,
+			input -> 10 * ((List<?>) input.getVariables().get("sequences")).size(), maxCost);
+	}
+
+	private static ExecutionInput input(String... headers) {
+		return ToySchema.input(ToySchema.QUERY, headers).transform(
+			builder -> builder.dataLoaderRegistry(new DataLoaderRegistry()));
+	}
+
+	private static List<String> headers(ExecutionResult result) {
+		Map<String, Object> data = result.getData();
+		List<String> headers = new ArrayList<>();
+		for (Object item : (List<?>) data.get("sequenceAnalysis")) {
+			headers.add((String) ((Map<?, ?>) item).get("header"));
+		}
+		return headers;
+	}
+
+	private static ExecutionResult get(CompletableFuture<ExecutionResult> future) throws Exception {
+		return future.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		ExecutionResult result = get(newCoalescer(0, 50).execute(input("a")));
+		assertEquals(Arrays.asList("a"), headers(result));
+		assertEquals(Arrays.asList(Arrays.asList("a")), recording.executions);
+	}
+
+	@Test
+	public void testDispatchAfterWindow() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(100, 50);
+		CompletableFuture<ExecutionResult> first = coalescer.execute(input("a"));
+		CompletableFuture<ExecutionResult> second = coalescer.execute(input("b", "c"));
+		assertFalse(first.isDone());
+		assertEquals(Arrays.asList("a"), headers(get(first)));
+		assertEquals(Arrays.asList("b", "c"), headers(get(second)));
+		assertTrue(get(second).getErrors().isEmpty());
+		assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), recording.executions);
+	}
+
+	@Test
+	public void testFullBatchIsDispatchedEarly() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(60000, 3);
+		CompletableFuture<ExecutionResult> first = coalescer.execute(input("a"));
+		CompletableFuture<ExecutionResult> second = coalescer.execute(input("b", "c"));
+		assertEquals(Arrays.asList("a"), headers(get(first)));
+		assertEquals(Arrays.asList("b", "c"), headers(get(second)));
+		assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), recording.executions);
+	}
+
+	@Test
+	public void testLargeRequestIsNotDelayed() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(60000, 3);
+		ExecutionResult result = get(coalescer.execute(input("a", "b", "c")));
+		assertEquals(Arrays.asList("a", "b", "c"), headers(result));
+	}
+
+	@Test
+	public void testOverflowDispatchesPendingBatch() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(60000, 3);
+		CompletableFuture<ExecutionResult> first = coalescer.execute(input("a", "b"));
+		CompletableFuture<ExecutionResult> second = coalescer.execute(input("c", "d"));
+		// the pending batch is sent as soon as the second request doesn't fit in
+		assertEquals(Arrays.asList("a", "b"), headers(get(first)));
+		assertFalse(second.isDone());
+		assertEquals(Arrays.asList(Arrays.asList("a", "b")), recording.executions);
+		// the second request fills the new batch
+		CompletableFuture<ExecutionResult> third = coalescer.execute(input("e"));
+		assertEquals(Arrays.asList("c", "d"), headers(get(second)));
+		assertEquals(Arrays.asList("e"), headers(get(third)));
+		assertEquals(
+			Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d", "e")),
+			recording.executions);
+	}
+
+	@Test
+	public void testBatchStaysWithinCostBudget() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(500, 50, 25);
+		CompletableFuture<ExecutionResult> first = coalescer.execute(input("a", "b"));
+		CompletableFuture<ExecutionResult> second = coalescer.execute(input("c"));
+		// the pending batch is sent as soon as the second request would take
+		// it over the budget
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+		assertEquals(Arrays.asList("a", "b"), headers(get(first)));
+		assertEquals(Arrays.asList("c"), headers(get(second)));
+		assertEquals(
+			Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")),
+			recording.executions);
+	}
+
+	@Test
+	public void testRequestOverCostBudgetIsNotDelayed() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(60000, 50, 25);
+		ExecutionResult result = get(coalescer.execute(input("a", "b", "c")));
+		assertEquals(Arrays.asList("a", "b", "c"), headers(result));
+		assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), recording.executions);
+	}
+
+	@Test
+	public void testCostBudgetDisabled() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(100, 50, 0);
+		CompletableFuture<ExecutionResult> first = coalescer.execute(input("a", "b"));
+		CompletableFuture<ExecutionResult> second = coalescer.execute(input("c", "d"));
+		assertEquals(Arrays.asList("a", "b"), headers(get(first)));
+		assertEquals(Arrays.asList("c", "d"), headers(get(second)));
+		assertEquals(Arrays.asList(Arrays.asList("a", "b", "c", "d")), recording.executions);
+	}
+
+	@Test
+	public void testRerunAloneOnError() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(100, 50);
+		CompletableFuture<ExecutionResult> good = coalescer.execute(input("a"));
+		CompletableFuture<ExecutionResult> bad = coalescer.execute(input("bad1"));
+		assertTrue(get(good).getErrors().isEmpty());
+		assertEquals(Arrays.asList("a"), headers(get(good)));
+		assertEquals(1, get(bad).getErrors().size());
+		assertEquals(
+			Arrays.asList("sequenceAnalysis", 0, "length"),
+			get(bad).getErrors().get(0).getPath());
+		assertEquals(
+			Arrays.asList(
+				Arrays.asList("a", "bad1"), Arrays.asList("a"), Arrays.asList("bad1")),
+			recording.executions);
+	}
+
+	@Test
+	public void testEveryExecutionHasItsOwnRegistry() throws Exception {
+		SequenceAnalysisCoalescer coalescer = newCoalescer(100, 50);
+		ExecutionInput good = input("a");
+		ExecutionInput bad = input("bad1");
+		CompletableFuture<ExecutionResult> first = coalescer.execute(good);
+		CompletableFuture<ExecutionResult> second = coalescer.execute(bad);
+		get(first);
+		get(second);
+		// one merged execution and two reruns
+		assertEquals(3, registries.size());
+		assertEquals(3, new HashSet<>(registries).size());
+		assertFalse(registries.contains(good.getDataLoaderRegistry()));
+		assertFalse(registries.contains(bad.getDataLoaderRegistry()));
+	}
+
+}
@@ -0,0 +1,242 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.stanford.hivdb.web.SequenceAnalysisStream.FastaIterator;
+import edu.stanford.hivdb.web.SequenceAnalysisStream.InvalidInputException;
+import edu.stanford.hivdb.web.SequenceAnalysisStream.NDJSONIterator;
+import edu.stanford.hivdb.web.SequenceAnalysisStream.QueryLine;
+
+public class SequenceAnalysisStreamTest {
+
+	private static BufferedReader reader(String text) {
+		return new BufferedReader(new StringReader(text));
+	}
+
+	private static List<String> toList(Iterator<Map<String, String>> sequences) {
+		List<String> result = new ArrayList<>();
+		while (sequences.hasNext()) {
+			Map<String, String> sequence = sequences.next();
+			result.add(sequence.get("header") + ":" + sequence.get("sequence"));
+		}
+		return result;
+	}
+
+	@Test
+	public void testFastaMultiLineRecords() {
+		assertEquals(
+			Arrays.asList("seq1:ACGTTTGG", "seq 2:CCAA"),
+			toList(new FastaIterator(reader(">seq1\nACGT\nTT GG\r\n\n> seq 2\nCC\nAA\n"))));
+	}
+
+	@Test
+	public void testFastaBlankSequence() {
+		assertEquals(
+			Arrays.asList("a:", "b:ACGT", "c:"),
+			toList(new FastaIterator(reader(">a\n>b\nACGT\n>c\n"))));
+	}
+
+	@Test
+	public void testFastaTextBeforeFirstHeader() {
+		assertEquals(
+			Arrays.asList("a:ACGT"),
+			toList(new FastaIterator(reader("some notes\nGGGG\n>a\nACGT\n"))));
+		assertEquals(
+			Arrays.asList(),
+			toList(new FastaIterator(reader("no header at all\n"))));
+	}
+
+	@Test
+	public void testNDJSON() {
+		assertEquals(
+			Arrays.asList("a:ACGT", ":GG"),
+			toList(new NDJSONIterator(reader(
+				"{\"header\": \"a\", \"sequence\": \"ACGT\"}\n\n{\"sequence\": \"GG\"}\n"))));
+	}
+
+	@Test
+	public void testNDJSONMalformedLine() {
+		NDJSONIterator sequences = new NDJSONIterator(reader(
+			"{\"header\": \"a\", \"sequence\": \"A\"}\n" +
+			"{\"header\": \"b\", \"sequence\": \"C\"}\n" +
+			"{\"header\": \"c\"\n" +
+			"{\"header\": \"d\", \"sequence\": \"G\"}\n"));
+		assertEquals("a", sequences.next().get("header"));
+		assertEquals("b", sequences.next().get("header"));
+		try {
+			sequences.hasNext();
+			fail("InvalidInputException expected");
+		} catch (InvalidInputException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid JSON at line 3"));
+		}
+	}
+
+	@Test
+	public void testNDJSONMissingSequence() {
+		NDJSONIterator sequences = new NDJSONIterator(reader("\n{\"header\": \"a\"}\n"));
+		try {
+			sequences.hasNext();
+			fail("InvalidInputException expected");
+		} catch (InvalidInputException e) {
+			assertEquals("Missing \"sequence\" at line 2.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testQueryFromFirstLine() throws IOException {
+		GraphQLDocumentCache documentCache = new GraphQLDocumentCache(8, 8);
+		BufferedReader body = reader(
+			"{\"query\": \"{ hello }\"}\n>a\nACGT\n");
+		assertEquals("{ hello }", SequenceAnalysisStream.resolveQuery(documentCache, null, null, body).query);
+		assertEquals(Arrays.asList("a:ACGT"), toList(new FastaIterator(body)));
+	}
+
+	private static class MarkRecordingReader extends BufferedReader {
+		private int readAheadLimit = 0;
+
+		public MarkRecordingReader(String text) {
+			super(new StringReader(text));
+		}
+
+		@Override
+		public void mark(int readAheadLimit) throws IOException {
+			this.readAheadLimit = readAheadLimit;
+			super.mark(readAheadLimit);
+		}
+	}
+
+	@Test
+	public void testFirstLineMarkIsReleased() throws IOException {
+		GraphQLDocumentCache documentCache = new GraphQLDocumentCache(8, 8);
+		MarkRecordingReader body = new MarkRecordingReader("{\"query\": \"{ hello }\"}\n>a\nACGT\n");
+		SequenceAnalysisStream.resolveQuery(documentCache, null, null, body);
+		assertEquals(1, body.readAheadLimit);
+		assertEquals(Arrays.asList("a:ACGT"), toList(new FastaIterator(body)));
+
+		body = new MarkRecordingReader(">a\nACGT\n");
+		SequenceAnalysisStream.resolveQuery(documentCache, null, null, body);
+		assertEquals(1, body.readAheadLimit);
+		assertEquals(Arrays.asList("a:ACGT"), toList(new FastaIterator(body)));
+	}
+
+	@Test
+	public void testLineNumbersAfterQueryLine() {
+		GraphQLDocumentCache documentCache = new GraphQLDocumentCache(8, 8);
+		BufferedReader body = reader(
+			"{\"query\": \"{ hello }\"}\n" +
+			"{\"header\": \"a\", \"sequence\": \"A\"}\n" +
+			"{\"header\": \"b\"}\n");
+		QueryLine queryLine = SequenceAnalysisStream.resolveQuery(documentCache, null, null, body);
+		assertEquals(1, queryLine.numLines);
+		NDJSONIterator sequences = new NDJSONIterator(body, queryLine.numLines);
+		assertEquals("a", sequences.next().get("header"));
+		try {
+			sequences.hasNext();
+			fail("InvalidInputException expected");
+		} catch (InvalidInputException e) {
+			assertEquals("Missing \"sequence\" at line 3.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testVariablesFromFirstLine() throws IOException {
+		String query = (
+			"query ($sequences: [SequenceInput], $withLength: Boolean!) {\n" +
+			"  sequenceAnalysis(sequences: $sequences) { header length @include(if: $withLength) }\n" +
+			"}"
+		);
+		GraphQLDocumentCache documentCache = new GraphQLDocumentCache(8, 8);
+		BufferedReader body = reader(
+			GraphQLResponseWriter.gson.toJson(Map.of(
+				"query", query, "variables", Map.of("withLength", false))) + "\n" +
+			"{\"header\": \"a\", \"sequence\": \"A\"}\n" +
+			"{\"header\": \"b\", \"sequence\": \"C\"}\n" +
+			"{\"header\": \"c\", \"sequence\": \"G\"}\n");
+		QueryLine queryLine = SequenceAnalysisStream.resolveQuery(documentCache, null, null, body);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		SequenceAnalysisStream stream = new SequenceAnalysisStream(
+			executor, new BatchedDataFetchers(),
+			new SequenceResultCache("HIV1", null, 0, null),
+			queryLine.query, queryLine.variables, "sequenceAnalysis", 2,
+			new NDJSONIterator(body, queryLine.numLines), false, () -> 0);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		stream.write(output);
+		assertEquals(
+			Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")),
+			executor.executions);
+		assertEquals(
+			"{\"header\":\"a\"}\n{\"header\":\"b\"}\n{\"header\":\"c\"}\n",
+			output.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testPersistedQueryFromFirstLine() {
+		GraphQLDocumentCache documentCache = new GraphQLDocumentCache(8, 8);
+		String hash = GraphQLDocumentCache.sha256Hex("{ hello }");
+		SequenceAnalysisStream.resolveQuery(documentCache, null, null, reader(
+			"{\"query\": \"{ hello }\", \"extensions\": " +
+			"{\"persistedQuery\": {\"sha256Hash\": \"" + hash + "\"}}}\n"));
+		assertEquals(
+			"{ hello }",
+			SequenceAnalysisStream.resolveQuery(documentCache, null, hash, reader(">a\nA\n")).query);
+	}
+
+	@Test
+	public void testQueryParameterLeavesBodyAlone() {
+		GraphQLDocumentCache documentCache = new GraphQLDocumentCache(8, 8);
+		BufferedReader body = reader("{\"header\": \"a\", \"sequence\": \"ACGT\"}\n");
+		assertEquals("", SequenceAnalysisStream.resolveQuery(documentCache, null, null, body).query);
+		assertEquals(Arrays.asList("a:ACGT"), toList(new NDJSONIterator(body)));
+
+		body = reader("{\"query\": \"{ hello }\"}\n");
+		assertEquals(
+			"{ viruses }",
+			SequenceAnalysisStream.resolveQuery(documentCache, "{ viruses }", null, body).query);
+		try {
+			new NDJSONIterator(body).hasNext();
+			fail("InvalidInputException expected");
+		} catch (InvalidInputException e) {
+			assertEquals("Missing \"sequence\" at line 1.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testMalformedLineInTheMiddleOfABatch() throws IOException {
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		SequenceAnalysisStream stream = new SequenceAnalysisStream(
+			executor, new BatchedDataFetchers(),
+			new SequenceResultCache("HIV1", null, 0, null),
+			ToySchema.QUERY, null, "sequenceAnalysis", 2,
+			new NDJSONIterator(reader(
+				"{\"header\": \"a\", \"sequence\": \"A\"}\n" +
+				"{\"header\": \"b\", \"sequence\": \"C\"}\n" +
+				"{\"header\": \"c\", \"sequence\": \"G\"}\n" +
+				"not json\n" +
+				"{\"header\": \"d\", \"sequence\": \"T\"}\n")),
+			false, () -> 0);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		stream.write(output);
+		String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(
+			Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")),
+			executor.executions);
+		assertEquals(4, lines.length);
+		assertEquals("{\"header\":\"a\",\"length\":1}", lines[0]);
+		assertEquals("{\"header\":\"c\",\"length\":1}", lines[2]);
+		assertTrue(lines[3], lines[3].contains("Invalid JSON at line 4"));
+	}
+
+}
@@ -0,0 +1,172 @@
+package edu.stanford.hivdb.web;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import graphql.ExecutionResult;
+
+public class SequenceResultCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String toJson(ExecutionResult result) {
+		Object data = result.getData();
+		return GraphQLResponseWriter.gson.toJson(data);
+	}
+
+	private static ExecutionResult execute(
+		SequenceResultCache cache, ToySchema.RecordingExecutor executor, String... headers
+	) {
+		return cache.execute(ToySchema.input(ToySchema.QUERY, headers), executor).join();
+	}
+
+	@Test
+	public void testDisabled() {
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 0, null);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		execute(cache, executor, "a");
+		execute(cache, executor, "a");
+		assertFalse(cache.isEnabled());
+		assertEquals(2, executor.executions.size());
+	}
+
+	@Test
+	public void testDisabledWithoutDataVersion() {
+		SequenceResultCache cache = new SequenceResultCache("HIV1", null, 16, null);
+		assertFalse(cache.isEnabled());
+	}
+
+	@Test
+	public void testHitAfterMiss() {
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 16, null);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		ExecutionResult first = execute(cache, executor, "a", "b");
+		ExecutionResult second = execute(cache, executor, "a", "b");
+		assertEquals(Arrays.asList(Arrays.asList("a", "b")), executor.executions);
+		assertEquals(toJson(first), toJson(second));
+		assertTrue(second.getErrors().isEmpty());
+	}
+
+	@Test
+	public void testMergesCachedAndExecutedResults() {
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 16, null);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		execute(cache, executor, "b");
+		ExecutionResult result = execute(cache, executor, "a", "b", "c");
+		assertEquals(Arrays.asList("a", "c"), executor.executions.get(1));
+		assertEquals(
+			"{\"sequenceAnalysis\":[" +
+			"{\"header\":\"a\",\"length\":5}," +
+			"{\"header\":\"b\",\"length\":5}," +
+			"{\"header\":\"c\",\"length\":5}]}",
+			toJson(result));
+	}
+
+	@Test
+	public void testRemapsErrorsOfExecutedSequences() {
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 16, null);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		execute(cache, executor, "a");
+		ExecutionResult result = execute(cache, executor, "a", "bad", "c");
+		// the cached sequence is not executed again
+		assertEquals(
+			Arrays.asList(Arrays.asList("a"), Arrays.asList("bad", "c")),
+			executor.executions);
+		assertEquals(1, result.getErrors().size());
+		// the error path refers to the full list
+		assertEquals(
+			Arrays.asList("sequenceAnalysis", 1, "length"),
+			result.getErrors().get(0).getPath());
+		assertTrue(
+			result.getErrors().get(0).getMessage(),
+			result.getErrors().get(0).getMessage().contains("/sequenceAnalysis[1]/length"));
+		assertEquals(
+			"{\"sequenceAnalysis\":[" +
+			"{\"header\":\"a\",\"length\":5}," +
+			"{\"header\":\"bad\",\"length\":null}," +
+			"{\"header\":\"c\",\"length\":5}]}",
+			toJson(result));
+
+		// failed sequences are not cached, the others are
+		execute(cache, executor, "bad", "c");
+		assertEquals(Arrays.asList("bad"), executor.executions.get(2));
+	}
+
+	@Test
+	public void testKeyedByQueryAndVariablesAndDataVersion() {
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 16, null);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		execute(cache, executor, "a");
+		cache.execute(ToySchema.input(
+			"query ($sequences: [SequenceInput]) { sequenceAnalysis(sequences: $sequences) { header } }",
+			"a"), executor).join();
+		assertEquals(2, executor.executions.size());
+
+		SequenceResultCache newVersion = new SequenceResultCache("HIV1", "v2", 16, null);
+		execute(newVersion, executor, "a");
+		assertEquals(3, executor.executions.size());
+	}
+
+	@Test
+	public void testUncacheableQuery() {
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 16, null);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		String query = (
+			"query ($sequences: [SequenceInput]) {\n" +
+			"  sequenceAnalysis(sequences: $sequences) { header }\n" +
+			"  hello\n" +
+			"}");
+		cache.execute(ToySchema.input(query, "a"), executor).join();
+		ExecutionResult result = cache.execute(ToySchema.input(query, "a"), executor).join();
+		assertEquals(2, executor.executions.size());
+		assertEquals("world", ((Map<?, ?>) result.getData()).get("hello"));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		// 1 MB holds 512K chars, i.e. two of the following results
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 1, null);
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		String pad = String.join("", Collections.nCopies(200_000, "x"));
+		execute(cache, executor, "a" + pad);
+		execute(cache, executor, "b" + pad);
+		execute(cache, executor, "a" + pad);
+		execute(cache, executor, "c" + pad);
+		assertEquals(3, executor.executions.size());
+		// "b" was the least recently used
+		execute(cache, executor, "a" + pad);
+		execute(cache, executor, "c" + pad);
+		assertEquals(3, executor.executions.size());
+		execute(cache, executor, "b" + pad);
+		assertEquals(4, executor.executions.size());
+	}
+
+	@Test
+	public void testDiskTier() throws Exception {
+		File directory = folder.newFolder();
+		ToySchema.RecordingExecutor executor = new ToySchema.RecordingExecutor();
+		ExecutionResult first = execute(
+			new SequenceResultCache("HIV1", "v1", 1, directory.getPath()), executor, "a");
+
+		// e.g. after a restart
+		SequenceResultCache cache = new SequenceResultCache("HIV1", "v1", 1, directory.getPath());
+		ExecutionResult second = execute(cache, executor, "a");
+		assertEquals(1, executor.executions.size());
+		assertEquals(toJson(first), toJson(second));
+
+		List<File> files = Arrays.asList(directory.listFiles());
+		assertEquals(1, files.size());
+		assertEquals(1, files.get(0).listFiles().length);
+	}
+
+}
@@ -0,0 +1,108 @@
+package edu.stanford.hivdb.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+
+/**
+ * A tiny stand-in for the Sierra schema: <code>sequenceAnalysis</code>
+ * echoes its sequences, and <code>length</code> fails for every sequence
+ * whose header starts with "bad".
+ */
+class ToySchema {
+
+	public static final String QUERY = (
+		"query ($sequences: [SequenceInput]) {\n" +
+		"  sequenceAnalysis(sequences: $sequences) { header length }\n" +
+		"}"
+	);
+
+	private static final String SDL = (
+		"type Query {\n" +
+		"  sequenceAnalysis(sequences: [SequenceInput]): [SequenceResult]\n" +
+		"  sequenceReadsAnalysis(sequenceReads: [SequenceReadsInput]): [SequenceResult]\n" +
+		"  hello: String\n" +
+		"}\n" +
+		"input SequenceInput { header: String sequence: String }\n" +
+		"input SequenceReadsInput { name: String allReads: [PositionInput] }\n" +
+		"input PositionInput { position: Int }\n" +
+		"type SequenceResult {\n" +
+		"  header: String sequence: String length: Int mutations: [Mutation]\n" +
+		"}\n" +
+		"type Mutation { text: String }\n"
+	);
+
+	public static GraphQLSchema newSchema() {
+		RuntimeWiring wiring = (
+			RuntimeWiring.newRuntimeWiring()
+			.type("Query", builder -> builder
+				.dataFetcher("sequenceAnalysis", env -> env.getArgument("sequences"))
+				.dataFetcher("hello", env -> "world"))
+			.type("SequenceResult", builder -> builder
+				.dataFetcher("length", env -> {
+					Map<String, String> source = env.getSource();
+					if (source.get("header").startsWith("bad")) {
+						throw new IllegalArgumentException("bad sequence");
+					}
+					return source.get("sequence").length();
+				}))
+			.build()
+		);
+		return new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(SDL), wiring);
+	}
+
+	public static List<Map<String, String>> sequences(String... headers) {
+		List<Map<String, String>> sequences = new ArrayList<>();
+		for (String header : headers) {
+			Map<String, String> sequence = new LinkedHashMap<>();
+			sequence.put("header", header);
+			sequence.put("sequence", "ACGT" + header);
+			sequences.add(sequence);
+		}
+		return sequences;
+	}
+
+	public static ExecutionInput input(String query, String... headers) {
+		Map<String, Object> variables = new LinkedHashMap<>();
+		variables.put("sequences", sequences(headers));
+		return ExecutionInput.newExecutionInput().query(query).variables(variables).build();
+	}
+
+	/**
+	 * Executes inputs synchronously and records the headers of each.
+	 */
+	public static class RecordingExecutor
+			implements Function<ExecutionInput, CompletableFuture<ExecutionResult>> {
+
+		public final List<List<String>> executions =
+			Collections.synchronizedList(new ArrayList<>());
+		private final GraphQL graphql = GraphQL.newGraphQL(newSchema()).build();
+
+		@Override
+		public CompletableFuture<ExecutionResult> apply(ExecutionInput input) {
+			List<String> headers = new ArrayList<>();
+			Object sequences = input.getVariables().get("sequences");
+			if (sequences instanceof List) {
+				for (Object sequence : (List<?>) sequences) {
+					headers.add((String) ((Map<?, ?>) sequence).get("header"));
+				}
+			}
+			executions.add(headers);
+			return CompletableFuture.completedFuture(graphql.execute(input));
+		}
+
+	}
+
+}